@@ -5,10 +5,14 @@ import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
 
 /**
  * MQTT 工厂类，用于创建具有智能重连功能的 MQTT 客户端
@@ -16,6 +20,10 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class EnhancedMqttFactory {
     // MQTT 代理地址
     private final String broker;
+    // 多节点地址，为空时只使用 broker
+    private final List<String> brokers;
+    // 多节点故障转移配置
+    private final FailoverConfig failoverConfig;
     // 客户端ID
     private final String clientId;
     // 存储持久化策略
@@ -30,6 +38,14 @@ public class EnhancedMqttFactory {
     private final MqttCallback customCallback;
     // 重连配置
     private final ReconnectConfig reconnectConfig;
+    // 消息预过滤
+    private final BiPredicate<String, MqttMessage> messageFilter;
+    // 消息压缩
+    private final MqttPayloadCompressor payloadCompressor;
+    // 就绪前发布消息的缓冲容量，0 表示直接失败
+    private final int publishBufferCapacity;
+    // 连接并订阅后等待调用方确认初始订阅完成才就绪
+    private final boolean deferReady;
 
     // 创建日志记录器实例
     private final Logger logger = LoggerFactory.getLogger(EnhancedMqttFactory.class);
@@ -40,8 +56,11 @@ public class EnhancedMqttFactory {
      * 构造函数私有化，采用 Builder 模式创建实例
      */
     private EnhancedMqttFactory(Builder builder) {
-        this.broker = builder.broker;
-        this.clientId = builder.clientId + "_" + System.currentTimeMillis();
+        this.broker = builder.brokers.isEmpty() ? builder.broker : builder.brokers.get(0);
+        this.brokers = builder.brokers;
+        this.failoverConfig = builder.failoverConfig;
+        // 持久会话按客户端ID恢复，必须在重启后保持不变；清洁会话追加时间戳避免多个实例互相踢下线
+        this.clientId = builder.cleanSession ? builder.clientId + "_" + System.currentTimeMillis() : builder.clientId;
         this.persistence = builder.persistence;
         this.username = builder.username;
         this.password = builder.password;
@@ -49,6 +68,10 @@ public class EnhancedMqttFactory {
         this.customCallback = builder.customCallback;
         this.reconnectConfig = builder.reconnectConfig;
         this.mqttCallBackThreadPoolExecutor = builder.mqttThreadPoolExecutor;
+        this.messageFilter = builder.messageFilter;
+        this.payloadCompressor = builder.payloadCompressor;
+        this.publishBufferCapacity = builder.publishBufferCapacity;
+        this.deferReady = builder.deferReady;
     }
 
     /**
@@ -66,6 +89,12 @@ public class EnhancedMqttFactory {
         private boolean cleanSession = true;
         private MqttCallback customCallback;
         private ReconnectConfig reconnectConfig = new ReconnectConfig();
+        private BiPredicate<String, MqttMessage> messageFilter;
+        private MqttPayloadCompressor payloadCompressor;
+        private int publishBufferCapacity = 0;
+        private boolean deferReady = false;
+        private List<String> brokers = Collections.emptyList();
+        private FailoverConfig failoverConfig = new FailoverConfig();
 
         private ThreadPoolExecutor mqttThreadPoolExecutor;
 
@@ -112,6 +141,52 @@ public class EnhancedMqttFactory {
             this.mqttThreadPoolExecutor = mqttThreadPoolExecutor;
             return this;
         }
+
+        /**
+         * 设置消息预过滤，返回 false 的消息在接收线程中直接丢弃，不会投递到回调线程池
+         */
+        public Builder messageFilter(BiPredicate<String, MqttMessage> messageFilter) {
+            this.messageFilter = messageFilter;
+            return this;
+        }
+
+        /**
+         * 设置消息压缩，发布时按主题压缩，接收时自动解压
+         */
+        public Builder payloadCompressor(MqttPayloadCompressor payloadCompressor) {
+            this.payloadCompressor = payloadCompressor;
+            return this;
+        }
+
+        /**
+         * 设置就绪前发布消息的缓冲容量，就绪后按顺序发出；0 表示就绪前发布直接失败
+         */
+        public Builder publishBufferCapacity(int capacity) {
+            this.publishBufferCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * 设置为 true 时，连接成功后不立即就绪，等待调用方完成初始订阅后调用 {@link MqttClientWrapper#releaseReady()}，
+         * 避免就绪时处理器的主题尚未订阅
+         */
+        public Builder deferReady(boolean deferReady) {
+            this.deferReady = deferReady;
+            return this;
+        }
+
+        /**
+         * 设置多个 Broker 节点，设置后忽略构造参数中的 broker，按探测延迟选择节点并自动故障转移
+         */
+        public Builder brokers(List<String> brokers) {
+            this.brokers = brokers;
+            return this;
+        }
+
+        public Builder failoverConfig(FailoverConfig config) {
+            this.failoverConfig = config;
+            return this;
+        }
     }
 
     /**
@@ -121,15 +196,74 @@ public class EnhancedMqttFactory {
      */
     public MqttClientWrapper create() throws MqttException {
         logger.info("创建 MQTT 客户端，broker: {}, clientId: {}", broker, clientId);
-        MqttClient client = new MqttClient(broker, clientId, persistence);
+        MqttClient client = newClient();
 
         MqttConnectOptions connOpts = buildConnectOptions();
         SmartReconnectCallback callback = buildCallback(client, connOpts);
 
         client.setCallback(callback);
+        MqttEndpointSelector selector = buildEndpointSelector();
+        if (selector != null) {
+            selector.probeAll();
+            connOpts.setServerURIs(selector.orderedUris());
+            callback.enableFailover(selector, failoverConfig, isFailbackAllowed(), failoverConfig.probeInterval);
+        }
         performConnect(client, connOpts, callback);
+        callback.markReady();
 
-        return new MqttClientWrapper(client, callback);
+        return new MqttClientWrapper(client, callback, payloadCompressor, publishBufferCapacity);
+    }
+
+    /**
+     * 创建 MQTT 客户端包装类实例，连接和订阅在后台线程中进行，不阻塞调用方
+     * <p>
+     * 连接失败时按重连配置退避重试，连接并完成批量订阅后 {@link MqttClientWrapper#getReadyFuture()} 完成
+     * @return MQTT 客户端包装类实例（尚未连接）
+     * @throws MqttException 如果客户端创建过程中出现错误
+     */
+    public MqttClientWrapper createAsync() throws MqttException {
+        logger.info("异步创建 MQTT 客户端，broker: {}, clientId: {}", broker, clientId);
+        MqttClient client = newClient();
+
+        MqttConnectOptions connOpts = buildConnectOptions();
+        SmartReconnectCallback callback = buildCallback(client, connOpts);
+
+        client.setCallback(callback);
+        MqttEndpointSelector selector = buildEndpointSelector();
+        if (selector != null) {
+            callback.enableFailover(selector, failoverConfig, isFailbackAllowed(), failoverConfig.probeInterval);
+            // 首次探测在重连调度线程中先于连接执行，此时还没有待执行的重连
+            callback.probeBeforeConnect();
+        }
+        MqttClientWrapper wrapper = new MqttClientWrapper(client, callback, payloadCompressor, publishBufferCapacity);
+        callback.scheduleReconnectAttempt();
+        return wrapper;
+    }
+
+    private MqttClient newClient() throws MqttException {
+        MqttClient client = new MqttClient(broker, clientId, persistence);
+        // 由回调在用户回调执行完成后确认，未执行的 QoS 1/2 消息不确认，持久会话下由 Broker 在下次连接时重新投递
+        client.setManualAcks(true);
+        return client;
+    }
+
+    private MqttEndpointSelector buildEndpointSelector() {
+        if (brokers.size() < 2) {
+            return null;
+        }
+        logger.info("启用多节点故障转移，brokers: {}", brokers);
+        return new MqttEndpointSelector(brokers, failoverConfig.probeTimeout);
+    }
+
+    /**
+     * 切回节点需要主动断开重连，清洁会话下断开期间的消息和未确认的消息会丢失，因此只在持久会话下切回
+     */
+    private boolean isFailbackAllowed() {
+        if (failoverConfig.failback && cleanSession) {
+            logger.warn("清洁会话下切回节点会丢失消息，已禁用 failback，需要切回时请设置 cleanSession=false");
+            return false;
+        }
+        return failoverConfig.failback;
     }
 
     /**
@@ -153,9 +287,13 @@ public class EnhancedMqttFactory {
      * @return 智能重连回调实例
      */
     private SmartReconnectCallback buildCallback(MqttClient client, MqttConnectOptions opts) {
-        return customCallback != null ?
-            new SmartReconnectCallback(client, opts, reconnectConfig, customCallback, mqttCallBackThreadPoolExecutor) :
-            new SmartReconnectCallback(client, opts, reconnectConfig, mqttCallBackThreadPoolExecutor);
+        // 没有自定义回调时同样需要预过滤和解压，拦截器（如响应、录制）仍会收到消息
+        SmartReconnectCallback callback = new SmartReconnectCallback(client, opts, reconnectConfig, customCallback,
+                mqttCallBackThreadPoolExecutor, messageFilter, payloadCompressor);
+        if (deferReady) {
+            callback.holdReady();
+        }
+        return callback;
     }
 
     /**
@@ -211,6 +349,42 @@ public class EnhancedMqttFactory {
         }
     }
 
+    /**
+     * 多节点故障转移配置参数封装
+     */
+    public static class FailoverConfig {
+        long probeInterval = 30000;
+        int probeTimeout = 1000;
+        boolean failback = true;
+        double failbackRatio = 0.5;
+        long failbackQuiesceTimeout = 5000;
+
+        public FailoverConfig probeInterval(long intervalMs) {
+            this.probeInterval = intervalMs;
+            return this;
+        }
+
+        public FailoverConfig probeTimeout(int timeoutMs) {
+            this.probeTimeout = timeoutMs;
+            return this;
+        }
+
+        public FailoverConfig failback(boolean enable) {
+            this.failback = enable;
+            return this;
+        }
+
+        public FailoverConfig failbackRatio(double ratio) {
+            this.failbackRatio = ratio;
+            return this;
+        }
+
+        public FailoverConfig failbackQuiesceTimeout(long timeoutMs) {
+            this.failbackQuiesceTimeout = timeoutMs;
+            return this;
+        }
+    }
+
     /**
      * 智能重连回调（核心实现）
      */
@@ -220,34 +394,72 @@ public class EnhancedMqttFactory {
         private final ReconnectConfig config;
         private final MqttCallback userCallback;
         private final Set<String> subscribedTopics = new CopyOnWriteArraySet<>();
+        // 消息拦截器，返回 true 表示消息已被消费，不再转发到用户回调
+        private final List<BiPredicate<String, MqttMessage>> messageInterceptors = new CopyOnWriteArrayList<>();
         private volatile boolean isShutdown = false;
+        // 连接后是否需要批量重新订阅，订阅失败时保持为 true 并在重试中继续订阅
+        private volatile boolean resubscribeRequired = false;
+        // 已连接并完成批量订阅
+        private volatile boolean subscribed = false;
+        // 为 true 时即使已订阅也不就绪，等待调用方完成初始订阅
+        private volatile boolean readyHeld = false;
+        // 停止接收后到达的消息不再处理也不确认
+        private volatile boolean intakeStopped = false;
 
         private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        // 节点探测和切回，与重连调度分开，探测耗时不会推迟立即进行的故障转移重连
+        private ScheduledExecutorService failoverScheduler;
         private final AtomicInteger reconnectAttempts = new AtomicInteger(0);
+        // 首次连接并完成订阅后完成
+        private final CompletableFuture<Void> readyFuture = new CompletableFuture<>();
+        // 保证订阅与重连后的批量订阅不会遗漏主题
+        private final Object subscriptionLock = new Object();
+        // 多节点选择，单节点时为 null
+        private volatile MqttEndpointSelector endpointSelector;
+        private FailoverConfig failoverConfig;
+        private boolean failback;
 
         private final ThreadPoolExecutor mqttCallbackThreadPoolExecutor;
+        private final BiPredicate<String, MqttMessage> messageFilter;
+        private final MqttPayloadCompressor payloadCompressor;
 
         // 创建日志记录器实例
         private final Logger logger = LoggerFactory.getLogger(SmartReconnectCallback.class);
 
         SmartReconnectCallback(MqttClient client, MqttConnectOptions opts,
                                ReconnectConfig config, ThreadPoolExecutor mqttCallbackThreadPoolExecutor) {
-            this(client, opts, config, null, mqttCallbackThreadPoolExecutor);
+            this(client, opts, config, null, mqttCallbackThreadPoolExecutor, null, null);
         }
 
         SmartReconnectCallback(MqttClient client, MqttConnectOptions opts,
-                               ReconnectConfig config, MqttCallback userCallback, ThreadPoolExecutor mqttCallbackThreadPoolExecutor) {
+                               ReconnectConfig config, MqttCallback userCallback, ThreadPoolExecutor mqttCallbackThreadPoolExecutor,
+                               BiPredicate<String, MqttMessage> messageFilter, MqttPayloadCompressor payloadCompressor) {
             this.client = client;
             this.connOpts = opts;
             this.config = config;
             this.userCallback = userCallback;
             this.mqttCallbackThreadPoolExecutor = mqttCallbackThreadPoolExecutor;
+            this.messageFilter = messageFilter;
+            this.payloadCompressor = payloadCompressor;
+            if (mqttCallbackThreadPoolExecutor != null) {
+                RejectedExecutionHandler rejectedHandler = mqttCallbackThreadPoolExecutor.getRejectedExecutionHandler();
+                mqttCallbackThreadPoolExecutor.setRejectedExecutionHandler((r, executor) -> {
+                    if (r instanceof AckingTask && !executor.isShutdown()) {
+                        ((AckingTask) r).rejected();
+                    }
+                    rejectedHandler.rejectedExecution(r, executor);
+                });
+            }
         }
 
         @Override
         public void connectionLost(Throwable cause) {
             if (isShutdown) return;
             logger.warn("MQTT 连接丢失: {}", cause.getMessage());
+            if (endpointSelector != null) {
+                // 断开的节点排到最后，重连优先选择其他可用节点
+                endpointSelector.markDown(client.getCurrentServerURI());
+            }
             // 处理连接丢失事件
             handleDisconnection(cause);
             // 转发事件到用户回调
@@ -255,12 +467,49 @@ public class EnhancedMqttFactory {
         }
 
         @Override
-        public void messageArrived(String topic, MqttMessage message) {
+        public void messageArrived(String topic, MqttMessage arrived) {
+            if (intakeStopped) {
+                // 不确认: 持久会话下 Broker 会在下次连接时重新投递，QoS 0 和清洁会话下的消息丢失
+                if (logger.isDebugEnabled()) {
+                    logger.debug("已停止接收消息，不确认主题 {} 的消息", topic);
+                }
+                return;
+            }
+            Object jfrEvent = MqttFlightRecorder.beginReceived();
+            boolean deferred = false;
+            try {
+                deferred = receive(topic, arrived);
+            } finally {
+                MqttFlightRecorder.endReceived(jfrEvent, topic, arrived.getPayload().length, arrived.getQos());
+                if (!deferred) {
+                    acknowledge(arrived);
+                }
+            }
+        }
+
+        /**
+         * @return 是否已转交回调线程池，此时由回调任务执行完成后确认
+         */
+        private boolean receive(String topic, MqttMessage arrived) {
+            // 先解压，后续过滤和反序列化都基于原始内容
+            MqttMessage message = decompress(topic, arrived);
+            if (message == null) {
+                return false;
+            }
             if(logger.isDebugEnabled()){
                 logger.debug("收到来自主题 {} 的消息: {}", topic, new String(message.getPayload()));
             }
+            for (BiPredicate<String, MqttMessage> interceptor : messageInterceptors) {
+                if (interceptor.test(topic, message)) {
+                    return false;
+                }
+            }
+            // 不满足内容过滤的消息直接丢弃，避免占用回调线程池
+            if (messageFilter != null && !messageFilter.test(topic, message)) {
+                return false;
+            }
             // 转发事件到用户回调
-            forwardEvent(() -> {
+            return forwardEvent(topic, arrived, () -> {
                 try {
                     userCallback.messageArrived(topic, message);
                 } catch (Exception e) {
@@ -270,6 +519,37 @@ public class EnhancedMqttFactory {
             });
         }
 
+        /**
+         * 确认 QoS 1/2 消息；连接已断开时确认失败，持久会话下由 Broker 在下次连接时重新投递
+         */
+        private void acknowledge(MqttMessage message) {
+            if (message.getQos() == 0) {
+                return;
+            }
+            try {
+                client.messageArrivedComplete(message.getId(), message.getQos());
+            } catch (MqttException e) {
+                logger.warn("确认消息失败 [ID: {}]: {}", message.getId(), e.getMessage());
+            }
+        }
+
+        private MqttMessage decompress(String topic, MqttMessage message) {
+            if (payloadCompressor == null || !MqttPayloadCompressor.isCompressed(message.getPayload())
+                    || !payloadCompressor.covers(topic)) {
+                return message;
+            }
+            try {
+                MqttMessage result = new MqttMessage(payloadCompressor.decompress(message.getPayload()));
+                result.setQos(message.getQos());
+                result.setRetained(message.isRetained());
+                result.setId(message.getId());
+                return result;
+            } catch (RuntimeException e) {
+                logger.error("解压消息失败 [主题: {}]: {}", topic, e.getMessage());
+                return null;
+            }
+        }
+
         @Override
         public void deliveryComplete(IMqttDeliveryToken token) {
             if(logger.isDebugEnabled()){
@@ -282,11 +562,15 @@ public class EnhancedMqttFactory {
         private void handleDisconnection(Throwable cause) {
             // 如果重连次数未达到最大值，则尝试重连
             if (reconnectAttempts.get() < config.maxAttempts) {
-                long delay = calculateBackoffDelay();
+                // 有其他可用节点时第一次重连立即进行
+                long delay = reconnectAttempts.get() == 0 && endpointSelector != null
+                        && endpointSelector.hasHealthyAlternative(client.getCurrentServerURI()) ?
+                        0 : calculateBackoffDelay();
                 logger.info("将在 {}.{}s 后尝试第{}次重连", delay / 1000, delay % 1000 / 100, reconnectAttempts.incrementAndGet());
                 scheduler.schedule(this::attemptReconnect, delay, TimeUnit.MILLISECONDS);
             } else {
                 logger.error("已达到最大重连次数，停止重连");
+                readyFuture.completeExceptionally(cause);
             }
         }
 
@@ -299,11 +583,17 @@ public class EnhancedMqttFactory {
             // 尝试重连
             try {
                 if (!client.isConnected()) {
-                    client.connect(connOpts);
+                    if (endpointSelector != null) {
+                        connOpts.setServerURIs(endpointSelector.orderedUris());
+                    }
+                    connect();
                     logger.info("重连成功！");
                     reconnectAttempts.set(0);
-                    // 重连成功后重新订阅主题
-                    resubscribeTopics();
+                }
+                if (resubscribeRequired) {
+                    // 重连成功后重新订阅主题，失败时按重连退避重试，期间不就绪
+                    restoreSubscriptions();
+                    markReady();
                 }
             } catch (MqttException e) {
                 logger.error("重连失败: {}", e.getMessage());
@@ -311,16 +601,112 @@ public class EnhancedMqttFactory {
             }
         }
 
-        private void resubscribeTopics() {
-            if (!subscribedTopics.isEmpty()) {
+        private void connect() throws MqttException {
+            Object jfrEvent = MqttFlightRecorder.beginReconnect();
+            boolean success = false;
+            try {
+                client.connect(connOpts);
+                success = true;
+                resubscribeRequired = true;
+            } finally {
+                MqttFlightRecorder.endReconnect(jfrEvent, client.getCurrentServerURI(), reconnectAttempts.get(), success);
+            }
+        }
+
+        private void restoreSubscriptions() throws MqttException {
+            synchronized (subscriptionLock) {
+                resubscribeTopics();
+                resubscribeRequired = false;
+            }
+        }
+
+        /**
+         * 一次 SUBSCRIBE 报文批量订阅所有已记录的主题
+         * @throws MqttException 如果订阅失败或 Broker 拒绝了其中任一主题
+         */
+        private void resubscribeTopics() throws MqttException {
+            if (subscribedTopics.isEmpty()) {
+                return;
+            }
+            String[] topics = subscribedTopics.toArray(new String[0]);
+            int[] qos = new int[topics.length];
+            Arrays.fill(qos, 1);
+            int[] granted = client.subscribeWithResponse(topics, qos).getGrantedQos();
+            for (int i = 0; i < granted.length; i++) {
+                if (granted[i] == 0x80) {
+                    logger.error("Broker 拒绝订阅主题: {}", topics[i]);
+                    throw new MqttException(MqttException.REASON_CODE_SUBSCRIBE_FAILED);
+                }
+            }
+            logger.info("重新订阅主题: {}", Arrays.toString(topics));
+        }
+
+        /**
+         * 启用多节点故障转移，在独立的 mqtt-failover 线程中定期探测各节点延迟，
+         * failback 为 true 时在延迟更低的节点可用时切回
+         */
+        void enableFailover(MqttEndpointSelector selector, FailoverConfig failoverConfig, boolean failback, long initialDelay) {
+            this.endpointSelector = selector;
+            this.failoverConfig = failoverConfig;
+            this.failback = failback;
+            this.failoverScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "mqtt-failover");
+                thread.setDaemon(true);
+                return thread;
+            });
+            failoverScheduler.scheduleWithFixedDelay(this::probeEndpoints, initialDelay, failoverConfig.probeInterval, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * 在重连调度线程中执行一次探测，之后提交的首次连接使用探测后的节点顺序
+         */
+        void probeBeforeConnect() {
+            scheduler.execute(() -> {
                 try {
-                    for (String topic : subscribedTopics) {
-                        client.subscribe(topic);
-                        logger.info("重新订阅主题: {}", topic);
-                    }
-                } catch (MqttException e) {
-                    logger.error("重新订阅主题失败: {}", e.getMessage());
+                    endpointSelector.probeAll();
+                } catch (RuntimeException e) {
+                    logger.error("Broker 节点探测异常: {}", e.getMessage());
                 }
+            });
+        }
+
+        private void probeEndpoints() {
+            try {
+                endpointSelector.probeAll();
+                if (failback && client.isConnected()
+                        && endpointSelector.shouldFailBack(client.getCurrentServerURI(), failoverConfig.failbackRatio)) {
+                    failBack();
+                }
+            } catch (Exception e) {
+                logger.error("Broker 节点探测异常: {}", e.getMessage());
+            }
+        }
+
+        /**
+         * 切回延迟更低的节点：等待未完成的消息收发后断开，再按最新顺序重新连接
+         * <p>
+         * 在 mqtt-failover 线程中执行，与 {@link #attemptReconnect()} 互斥: 切回期间到期的重连等待切回结束，
+         * 此时客户端通常已重新连接，重连直接跳过连接步骤
+         */
+        private synchronized void failBack() {
+            if (isShutdown || !client.isConnected()) {
+                return;
+            }
+            String current = client.getCurrentServerURI();
+            try {
+                client.disconnect(failoverConfig.failbackQuiesceTimeout);
+            } catch (MqttException e) {
+                logger.warn("切换节点前断开连接失败: {}", e.getMessage());
+                return;
+            }
+            try {
+                connOpts.setServerURIs(endpointSelector.orderedUris());
+                connect();
+                logger.info("已从 {} 切换到节点 {}", current, client.getCurrentServerURI());
+                restoreSubscriptions();
+            } catch (MqttException e) {
+                logger.error("切换节点失败: {}", e.getMessage());
+                handleDisconnection(e);
             }
         }
 
@@ -330,31 +716,91 @@ public class EnhancedMqttFactory {
         }
 
         private void forwardEvent(Runnable action) {
+            forwardEvent(null, null, action);
+        }
+
+        /**
+         * @param topic 消息主题，非消息事件为 null
+         * @param arrived 需要在回调完成后确认的消息，非消息事件为 null
+         * @return 是否已转交回调线程池，此时消息由回调任务确认
+         */
+        private boolean forwardEvent(String topic, MqttMessage arrived, Runnable action) {
             // 转发事件到用户回调
-            if (userCallback != null) {
-                if (mqttCallbackThreadPoolExecutor != null) {
-                    // 使用线程池异步执行用户回调
-                    mqttCallbackThreadPoolExecutor.execute(() -> {
-                        try {
-                            action.run();
-                        } catch (Exception e) {
-                            logger.error("用户回调执行异常: {}", e.getMessage());
-                        }
-                    });
-                } else {
-                    // 如果没有线程池，则同步执行
+            if (userCallback == null) {
+                return false;
+            }
+            if (mqttCallbackThreadPoolExecutor == null) {
+                // 如果没有线程池，则同步执行
+                runCallback(action);
+                return false;
+            }
+            Object jfrEvent = topic != null ? MqttFlightRecorder.beginDispatchQueued() : null;
+            Runnable task;
+            if (jfrEvent == null) {
+                // 未录制时不计时、不统计队列长度，也不让事件对象逃逸到任务中
+                task = () -> runCallback(action);
+            } else {
+                long enqueuedAt = System.nanoTime();
+                int queueSize = mqttCallbackThreadPoolExecutor.getQueue().size();
+                task = () -> {
+                    MqttFlightRecorder.endDispatchQueued(jfrEvent, topic, queueSize, enqueuedAt);
                     try {
-                        action.run();
-                    } catch (Exception e) {
-                        logger.error("用户回调执行异常: {}", e.getMessage());
+                        runCallback(action);
+                    } finally {
+                        MqttFlightRecorder.clearQueueWait();
                     }
+                };
+            }
+            // 使用线程池异步执行用户回调
+            mqttCallbackThreadPoolExecutor.execute(arrived != null ? new AckingTask(task, arrived) : task);
+            return arrived != null;
+        }
+
+        /**
+         * 回调执行完成后确认消息；被线程池拒绝时同样确认，避免未确认的消息占满 Broker 的在途窗口。
+         * 关闭时被 shutdownNow 移出队列的任务不会确认
+         */
+        private final class AckingTask implements Runnable {
+            private final Runnable task;
+            private final MqttMessage message;
+
+            AckingTask(Runnable task, MqttMessage message) {
+                this.task = task;
+                this.message = message;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    acknowledge(message);
                 }
             }
+
+            void rejected() {
+                logger.warn("回调线程池拒绝了消息 [ID: {}]，已确认并丢弃", message.getId());
+                acknowledge(message);
+            }
+        }
+
+        private void runCallback(Runnable action) {
+            try {
+                action.run();
+            } catch (Exception e) {
+                logger.error("用户回调执行异常: {}", e.getMessage());
+            }
         }
 
 
         public void shutdown() {
             this.isShutdown = true;
+            if (endpointSelector != null) {
+                endpointSelector.shutdown();
+            }
+            if (failoverScheduler != null) {
+                failoverScheduler.shutdownNow();
+            }
             try {
                 if (!scheduler.isShutdown()) {
                     scheduler.shutdownNow();
@@ -372,6 +818,110 @@ public class EnhancedMqttFactory {
         public void addSubscribedTopic(String topic) {
             subscribedTopics.add(topic);
         }
+
+        /**
+         * 订阅主题；未连接时仅记录，连接成功后批量订阅
+         */
+        void subscribe(String topic) throws MqttException {
+            synchronized (subscriptionLock) {
+                subscribedTopics.add(topic);
+                if (client.isConnected()) {
+                    client.subscribe(topic);
+                }
+            }
+        }
+
+        /**
+         * 取消订阅，重连后不再恢复
+         */
+        void unsubscribe(String topic) throws MqttException {
+            synchronized (subscriptionLock) {
+                subscribedTopics.remove(topic);
+                if (client.isConnected()) {
+                    client.unsubscribe(topic);
+                }
+            }
+        }
+
+        /**
+         * 已连接并完成批量订阅，未被暂缓时就绪
+         */
+        void markReady() {
+            subscribed = true;
+            completeReady();
+        }
+
+        /**
+         * 暂缓就绪，直到调用 {@link #releaseReady()}
+         */
+        void holdReady() {
+            readyHeld = true;
+        }
+
+        /**
+         * 调用方已完成初始订阅，已连接时立即就绪
+         */
+        void releaseReady() {
+            readyHeld = false;
+            completeReady();
+        }
+
+        private void completeReady() {
+            // 两个标志均为 volatile，markReady 与 releaseReady 并发时至少一方能看到两者都满足
+            if (subscribed && !readyHeld && readyFuture.complete(null)) {
+                logger.info("MQTT 客户端已就绪");
+            }
+        }
+
+        public CompletableFuture<Void> getReadyFuture() {
+            return readyFuture;
+        }
+
+        public Set<String> getSubscribedTopics() {
+            return Collections.unmodifiableSet(subscribedTopics);
+        }
+
+        /**
+         * 停止接收消息，之后到达的消息不再转发到用户回调，QoS 1/2 消息也不再确认
+         */
+        void stopIntake() {
+            this.intakeStopped = true;
+        }
+
+        /**
+         * 关闭回调线程池，不等待；已排队的回调继续执行
+         */
+        void shutdownCallbacks() {
+            if (mqttCallbackThreadPoolExecutor != null) {
+                mqttCallbackThreadPoolExecutor.shutdown();
+            }
+        }
+
+        /**
+         * 关闭回调线程池，等待正在执行和已排队的回调完成
+         * @param timeoutMillis 最长等待时间（毫秒）
+         * @return 是否在超时前全部完成
+         */
+        boolean drainCallbacks(long timeoutMillis) throws InterruptedException {
+            if (mqttCallbackThreadPoolExecutor == null) {
+                return true;
+            }
+            mqttCallbackThreadPoolExecutor.shutdown();
+            if (mqttCallbackThreadPoolExecutor.awaitTermination(Math.max(timeoutMillis, 0), TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+            int dropped = mqttCallbackThreadPoolExecutor.shutdownNow().size();
+            logger.warn("回调线程池未在 {}ms 内处理完成，丢弃 {} 条排队消息", timeoutMillis, dropped);
+            return false;
+        }
+
+        /**
+         * 添加消息拦截器，在 MQTT 接收线程中调用，拦截器应尽快返回
+         * @param interceptor 返回 true 表示消息已被消费
+         */
+        public void addMessageInterceptor(BiPredicate<String, MqttMessage> interceptor) {
+            messageInterceptors.add(interceptor);
+        }
     }
 
 //    public static void main(String[] args) throws Exception {
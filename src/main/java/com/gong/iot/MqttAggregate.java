@@ -0,0 +1,83 @@
+package com.gong.iot;
+
+/**
+ * 窗口聚合结果，每个窗口每个键投递一次
+ *
+ * @see MqttTopic#aggregate()
+ */
+public final class MqttAggregate {
+    private final String key;
+    private final long windowStart;
+    private final long windowEnd;
+    private final long count;
+    private final double sum;
+    private final double min;
+    private final double max;
+    private final double last;
+
+    MqttAggregate(String key, long windowStart, long windowEnd,
+                  long count, double sum, double min, double max, double last) {
+        this.key = key;
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+        this.last = last;
+    }
+
+    /**
+     * 聚合键，即主题中 {@link MqttTopic#keySegment()} 指定的层级
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * 窗口开始时间（epoch 毫秒，包含）
+     */
+    public long getWindowStart() {
+        return windowStart;
+    }
+
+    /**
+     * 窗口结束时间（epoch 毫秒，不包含）
+     */
+    public long getWindowEnd() {
+        return windowEnd;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * 窗口内最后收到的值
+     */
+    public double getLast() {
+        return last;
+    }
+
+    public double getAverage() {
+        return count > 0 ? sum / count : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "MqttAggregate{key=" + key + ", window=[" + windowStart + ", " + windowEnd + "), count=" + count
+                + ", sum=" + sum + ", min=" + min + ", max=" + max + ", last=" + last + "}";
+    }
+}
@@ -1,5 +1,6 @@
 package com.gong.iot;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.eclipse.paho.client.mqttv3.*;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,7 +12,11 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.util.StreamUtils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.UUID;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -56,7 +61,9 @@ public class MqttAutoConfiguration {
 
     @Bean
     @ConditionalOnMissingBean
-    public EnhancedMqttFactory enhancedMQTTFactory(@Autowired(required = false) MqttCallback mqttCallback,@Qualifier("mqttThreadPoolExecutor")ThreadPoolExecutor mqttThreadPoolExecutor) {
+    public EnhancedMqttFactory enhancedMQTTFactory(@Autowired(required = false) MqttCallback mqttCallback,@Qualifier("mqttThreadPoolExecutor")ThreadPoolExecutor mqttThreadPoolExecutor,
+                                                   MqttHandlerRegistry registry,
+                                                   @Autowired(required = false) MqttPayloadCompressor payloadCompressor) {
         logger.info("创建 EnhancedMQTTFactory 实例");
         EnhancedMqttFactory.ReconnectConfig reconnectConfig = new EnhancedMqttFactory.ReconnectConfig()
                 .maxAttempts(properties.getReconnect().getMaxAttempts())
@@ -68,13 +75,29 @@ public class MqttAutoConfiguration {
                 .clientId(properties.getClientId() != null ? properties.getClientId() : UUID.randomUUID().toString())
                 .cleanSession(properties.isCleanSession())
                 .reconnectConfig(reconnectConfig)
-                .callbackThreadPool(mqttThreadPoolExecutor);
+                .callbackThreadPool(mqttThreadPoolExecutor)
+                .publishBufferCapacity(properties.getStartup().getPublishBufferCapacity())
+                // 处理器主题订阅完成后才就绪，见 mqttClientWrapper
+                .deferReady(true)
+                .brokers(properties.getBrokers())
+                .failoverConfig(new EnhancedMqttFactory.FailoverConfig()
+                        .probeInterval(properties.getFailover().getProbeInterval())
+                        .probeTimeout(properties.getFailover().getProbeTimeout())
+                        .failback(properties.getFailover().isFailback())
+                        .failbackRatio(properties.getFailover().getFailbackRatio())
+                        .failbackQuiesceTimeout(properties.getFailover().getFailbackQuiesceTimeout()))
+                .messageFilter((topic, message) -> registry.accept(topic, message.getPayload()));
 
         if (properties.getUsername() != null && properties.getPassword() != null) {
             logger.info("设置 MQTT 客户端认证信息");
             builder.credentials(properties.getUsername(), properties.getPassword());
         }
 
+        if (payloadCompressor != null) {
+            logger.info("启用 MQTT 消息压缩");
+            builder.payloadCompressor(payloadCompressor);
+        }
+
         if (mqttCallback != null) {
             logger.info("设置自定义 MQTT 回调");
             builder.callback(mqttCallback);
@@ -85,6 +108,22 @@ public class MqttAutoConfiguration {
 
 
 
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "spring.mqtt.compression", name = "enabled", havingValue = "true")
+    public MqttPayloadCompressor mqttPayloadCompressor() throws IOException {
+        MqttProperties.CompressionConfig compression = properties.getCompression();
+        byte[] zstdDictionary = null;
+        if (compression.getZstdDictionary() != null) {
+            try (InputStream in = compression.getZstdDictionary().getInputStream()) {
+                zstdDictionary = StreamUtils.copyToByteArray(in);
+            }
+            logger.info("加载 zstd 字典: {}", compression.getZstdDictionary().getDescription());
+        }
+        return new MqttPayloadCompressor(
+                MqttPayloadCompressor.toTopicAlgorithms(compression.getRules()), compression, zstdDictionary);
+    }
+
     @Bean
     @ConditionalOnMissingBean
     public MqttClientWrapper mqttClientWrapper(
@@ -93,8 +132,9 @@ public class MqttAutoConfiguration {
             MqttHandlerRegistry registry) throws Exception {
 
         logger.info("创建 MQTT 客户端包装类实例");
-        MqttClientWrapper wrapper = factory.create();
-        
+        // 异步模式下此处只记录主题，连接成功后统一批量订阅
+        MqttClientWrapper wrapper = properties.getStartup().isAsync() ? factory.createAsync() : factory.create();
+
         // 自动订阅配置的 Topic
         if (!properties.getTopics().isEmpty()) {
             logger.info("自动订阅配置的主题: {}", properties.getTopics());
@@ -102,20 +142,58 @@ public class MqttAutoConfiguration {
                 wrapper.subscribe(topic);
             }
         }
-        // 自动订阅所有处理器关注的Topic
-        registry.getSubscribedTopics().forEach(topic -> {
-            try {
-                wrapper.subscribe(topic);
-                logger.info("自动订阅MQTT主题: {}", topic);
-            } catch (MqttException e) {
-                logger.error("订阅主题失败: {}", topic, e);
-            }
-        });
+        // 自动订阅所有处理器关注的Topic，之后运行时注册的处理器由注册表同步订阅
+        registry.bindClient(wrapper);
+        wrapper.releaseReady();
 
         return wrapper;
     }
 
 
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "spring.mqtt.shutdown", name = "graceful", havingValue = "true", matchIfMissing = true)
+    public MqttShutdownLifecycle mqttShutdownLifecycle(MqttClientWrapper wrapper) {
+        return new MqttShutdownLifecycle(wrapper, properties.getShutdown().getTimeout(), properties.getShutdown().getPhase());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "spring.mqtt.recorder", name = "enabled", havingValue = "true")
+    public MqttTrafficRecorder mqttTrafficRecorder(MqttClientWrapper wrapper) throws IOException {
+        MqttProperties.RecorderConfig recorder = properties.getRecorder();
+        MqttTrafficRecorder trafficRecorder = new MqttTrafficRecorder(
+                Paths.get(recorder.getPath()), recorder.getMaxSize(), recorder.getChunkSize());
+        wrapper.getCallback().addMessageInterceptor(trafficRecorder::record);
+        return trafficRecorder;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "spring.mqtt.request", name = "enabled", havingValue = "true")
+    public MqttRequestTemplate mqttRequestTemplate(MqttClientWrapper wrapper, ObjectMapper objectMapper,
+                                                   @Qualifier("mqttThreadPoolExecutor") ThreadPoolExecutor mqttThreadPoolExecutor) throws MqttException {
+        MqttProperties.RequestConfig request = properties.getRequest();
+        String replyTopicPrefix = request.getReplyTopicPrefix() != null ?
+                request.getReplyTopicPrefix() : "reply/" + wrapper.getClient().getClientId();
+        logger.info("创建 MQTT 请求模板，响应主题前缀: {}", replyTopicPrefix);
+        MqttRequestTemplate template = new MqttRequestTemplate(wrapper, objectMapper, mqttThreadPoolExecutor,
+                replyTopicPrefix, request.getDefaultTimeout(), request.getTickDuration(), request.getWheelSize());
+        template.start();
+        return template;
+    }
+
+    @Configuration
+    @ConditionalOnClass(name = "org.springframework.boot.actuate.health.HealthIndicator")
+    static class MqttHealthConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean(name = "mqttHealthIndicator")
+        public MqttHealthIndicator mqttHealthIndicator(MqttClientWrapper wrapper) {
+            return new MqttHealthIndicator(wrapper);
+        }
+    }
+
     @Bean
     @ConditionalOnMissingBean
     public MqttCallback defaultMqttCallback(MqttHandlerRegistry registry) {
@@ -0,0 +1,287 @@
+package com.gong.iot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * 分块传输接收端，将数据块按偏移写入临时文件，收齐后校验并以 {@link MqttTransfer} 投递
+ * <p>
+ * 内存中每个传输只保存已收块的位图，数据块可乱序、重复到达；断线重连期间未完成的传输保留，
+ * 发送方续传的数据块继续写入，超过传输超时时间没有新数据块的传输会被放弃并删除临时文件。
+ *
+ * @see MqttChunkedTransfer
+ */
+final class MqttChunkAssembler {
+    private static final Logger logger = LoggerFactory.getLogger(MqttChunkAssembler.class);
+
+    private final String name;
+    private final Path tempDir;
+    private final long maxTransferSize;
+    private final int maxTransfers;
+    private final long timeoutNanos;
+    private final BiConsumer<String, MqttTransfer> sink;
+
+    private final Map<String, Transfer> transfers = new ConcurrentHashMap<>();
+    // 已完成或已放弃的传输，忽略其重复到达的数据块，超时后清理
+    private final Map<String, Long> finished = new ConcurrentHashMap<>();
+    // 处理器已注销，之后到达的数据块直接忽略，不再创建临时文件
+    private volatile boolean closed;
+
+    /**
+     * @param name 名称，用于日志
+     * @param config 分块传输配置
+     * @param sink 接收完成的传输，参数为基础主题和传输内容
+     * @throws IOException 如果临时目录无法创建
+     */
+    MqttChunkAssembler(String name, MqttProperties.ChunkedConfig config,
+                       BiConsumer<String, MqttTransfer> sink) throws IOException {
+        this.name = name;
+        this.tempDir = Paths.get(config.getTempDir() != null ? config.getTempDir() : System.getProperty("java.io.tmpdir"));
+        this.maxTransferSize = config.getMaxTransferSize();
+        this.maxTransfers = config.getMaxTransfers();
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getTransferTimeout());
+        this.sink = sink;
+        Files.createDirectories(tempDir);
+    }
+
+    /**
+     * 处理一条数据块或清单消息
+     * @param topic {@code <基础主题>/<transferId>/<序号|manifest>}
+     */
+    void accept(String topic, byte[] payload) {
+        if (closed) {
+            return;
+        }
+        int last = topic.lastIndexOf('/');
+        int previous = last > 0 ? topic.lastIndexOf('/', last - 1) : -1;
+        if (previous <= 0) {
+            logger.warn("无法识别的分块传输主题: {}", topic);
+            return;
+        }
+        String transferId = topic.substring(previous + 1, last);
+        if (finished.containsKey(transferId)) {
+            return;
+        }
+        Transfer transfer = transfers.get(transferId);
+        if (transfer == null) {
+            if (transfers.size() >= maxTransfers) {
+                logger.warn("进行中的分块传输已达上限 {}，丢弃传输 {} 的数据 [{}]", maxTransfers, transferId, name);
+                return;
+            }
+            try {
+                transfer = transfers.computeIfAbsent(transferId, this::open);
+            } catch (UncheckedIOException e) {
+                logger.error("创建分块传输临时文件失败 [{}]: {}", name, e.getMessage());
+                return;
+            }
+            if (closed) {
+                // 与 close 并发创建的传输
+                abort(transfer);
+                return;
+            }
+        }
+        try {
+            String part = topic.substring(last + 1);
+            if (MqttChunkedTransfer.MANIFEST.equals(part)) {
+                transfer.manifest(MqttChunkedTransfer.readManifest(payload));
+            } else {
+                transfer.chunk(Integer.parseInt(part), payload);
+            }
+            if (transfer.tryComplete()) {
+                complete(topic.substring(0, previous), transfer);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("分块传输 {} 失败，放弃传输 [{}]: {}", transferId, name, e.getMessage());
+            abort(transfer);
+        }
+    }
+
+    private Transfer open(String transferId) {
+        try {
+            Path file = Files.createTempFile(tempDir, "mqtt-" + transferId + "-", ".part");
+            return new Transfer(transferId, file, FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void complete(String baseTopic, Transfer transfer) throws IOException {
+        transfers.remove(transfer.id);
+        finished.put(transfer.id, System.nanoTime());
+        MqttChunkedTransfer.Manifest manifest = transfer.manifest;
+        boolean verified = false;
+        try {
+            try {
+                transfer.channel.truncate(manifest.getSize());
+            } finally {
+                transfer.channel.close();
+            }
+            verified = Files.size(transfer.file) == manifest.getSize()
+                    && digest(transfer.file).equalsIgnoreCase(manifest.getSha256());
+        } finally {
+            if (!verified) {
+                Files.deleteIfExists(transfer.file);
+            }
+        }
+        if (!verified) {
+            logger.error("分块传输 {} 校验失败，已丢弃 [{}]", transfer.id, name);
+            return;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("分块传输 {} 接收完成 [{}]，大小: {}", transfer.id, name, manifest.getSize());
+        }
+        sink.accept(baseTopic, new MqttTransfer(transfer.id, manifest.getName(), manifest.getSize(), transfer.file));
+    }
+
+    private static String digest(Path file) throws IOException {
+        MessageDigest digest = MqttChunkedTransfer.sha256();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return MqttChunkedTransfer.toHex(digest.digest());
+    }
+
+    private void abort(Transfer transfer) {
+        if (!transfer.abort()) {
+            return;
+        }
+        transfers.remove(transfer.id, transfer);
+        finished.put(transfer.id, System.nanoTime());
+        try {
+            transfer.channel.close();
+            Files.deleteIfExists(transfer.file);
+        } catch (IOException e) {
+            logger.warn("删除分块传输临时文件失败: {}", transfer.file);
+        }
+    }
+
+    /**
+     * 放弃超时的传输
+     */
+    void expire() {
+        long now = System.nanoTime();
+        for (Transfer transfer : transfers.values()) {
+            if (now - transfer.lastActivity > timeoutNanos) {
+                logger.warn("分块传输 {} 超时，已收到 {} 块 [{}]", transfer.id, transfer.receivedCount(), name);
+                abort(transfer);
+            }
+        }
+        for (Iterator<Long> it = finished.values().iterator(); it.hasNext(); ) {
+            if (now - it.next() > timeoutNanos) {
+                it.remove();
+            }
+        }
+    }
+
+    void close() {
+        closed = true;
+        for (Transfer transfer : transfers.values()) {
+            abort(transfer);
+        }
+    }
+
+    private class Transfer {
+        final String id;
+        final Path file;
+        final FileChannel channel;
+        private final BitSet received = new BitSet();
+        private int chunkSize;
+        private MqttChunkedTransfer.Manifest manifest;
+        // 已完成或已放弃
+        private boolean done;
+        volatile long lastActivity = System.nanoTime();
+
+        Transfer(String id, Path file, FileChannel channel) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+        }
+
+        void chunk(int index, byte[] payload) throws IOException {
+            if (payload.length < MqttChunkedTransfer.HEADER_LENGTH || payload[0] != MqttChunkedTransfer.VERSION) {
+                throw new IOException("不支持的数据块格式");
+            }
+            int size = ((payload[1] & 0xFF) << 24) | ((payload[2] & 0xFF) << 16) | ((payload[3] & 0xFF) << 8) | (payload[4] & 0xFF);
+            int length = payload.length - MqttChunkedTransfer.HEADER_LENGTH;
+            long offset = (long) index * size;
+            if (index < 0 || size <= 0 || length > size || offset + length > maxTransferSize) {
+                throw new IOException("数据块超出限制 [序号: " + index + ", 块大小: " + size + "]");
+            }
+            synchronized (this) {
+                if (chunkSize == 0) {
+                    chunkSize = size;
+                } else if (chunkSize != size) {
+                    throw new IOException("数据块大小不一致: " + size + " != " + chunkSize);
+                }
+                if (done || received.get(index)) {
+                    // 重连后重复投递
+                    return;
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(payload, MqttChunkedTransfer.HEADER_LENGTH, length);
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            synchronized (this) {
+                received.set(index);
+            }
+            lastActivity = System.nanoTime();
+        }
+
+        synchronized void manifest(MqttChunkedTransfer.Manifest manifest) throws IOException {
+            if (manifest.getSize() > maxTransferSize) {
+                throw new IOException("传输大小 " + manifest.getSize() + " 超过上限 " + maxTransferSize);
+            }
+            if (chunkSize != 0 && chunkSize != manifest.getChunkSize()) {
+                throw new IOException("清单块大小与数据块不一致");
+            }
+            this.manifest = manifest;
+            lastActivity = System.nanoTime();
+        }
+
+        /**
+         * 收齐所有数据块时标记为完成，只会返回一次 true
+         */
+        synchronized boolean tryComplete() {
+            if (done || manifest == null || received.nextClearBit(0) < manifest.getChunks()) {
+                return false;
+            }
+            done = true;
+            return true;
+        }
+
+        synchronized boolean abort() {
+            if (done) {
+                return false;
+            }
+            done = true;
+            return true;
+        }
+
+        synchronized int receivedCount() {
+            return received.cardinality();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.gong.iot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 大消息分块传输协议
+ * <p>
+ * 一次传输由若干数据块和一条清单组成，发送方读取一块发送一块，内存中只保留当前数据块:
+ * <pre>
+ * 数据块: 主题 {@code <topic>/<transferId>/<序号>}，内容 | 版本(1) | 块大小(4) | 数据 |
+ * 清单:   主题 {@code <topic>/<transferId>/manifest}，内容为 JSON {@link Manifest}，在所有数据块之后发送
+ * </pre>
+ * 接收方按"序号 * 块大小"写入临时文件对应位置，因此数据块可以乱序、重复到达；
+ * 收齐清单中的块数并校验长度和 SHA-256 后交给处理器，见 {@link MqttChunkAssembler}。
+ */
+final class MqttChunkedTransfer {
+    private static final Logger logger = LoggerFactory.getLogger(MqttChunkedTransfer.class);
+    private static final ObjectMapper MANIFEST_MAPPER = new ObjectMapper();
+
+    static final byte VERSION = 1;
+    static final int HEADER_LENGTH = 5;
+    static final String MANIFEST = "manifest";
+    static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    static final int DEFAULT_QOS = 1;
+    static final long DEFAULT_RESUME_TIMEOUT = 60000;
+    // 发送失败后重试间隔（毫秒）
+    private static final long RETRY_INTERVAL = 200;
+
+    private MqttChunkedTransfer() {
+    }
+
+    /**
+     * 分块发送输入流，先等待客户端就绪；连接断开或在途消息已满时等待后从失败的数据块继续发送
+     * @return 传输ID
+     */
+    static String send(MqttClientWrapper wrapper, String topic, InputStream in, String name,
+                       int chunkSize, int qos, long resumeTimeoutMillis) throws IOException, MqttException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("块大小必须大于 0: " + chunkSize);
+        }
+        awaitReady(wrapper, topic, resumeTimeoutMillis);
+        String transferId = UUID.randomUUID().toString().replace("-", "");
+        String prefix = topic + "/" + transferId + "/";
+        MessageDigest digest = sha256();
+        long size = 0;
+        int index = 0;
+        while (true) {
+            // 每块使用新数组: QoS > 0 的消息在确认前由客户端持有，重发时不能被下一块覆盖
+            byte[] chunk = new byte[HEADER_LENGTH + chunkSize];
+            int length = readFully(in, chunk, HEADER_LENGTH, chunkSize);
+            if (length == 0) {
+                break;
+            }
+            if (length < chunkSize) {
+                chunk = Arrays.copyOf(chunk, HEADER_LENGTH + length);
+            }
+            chunk[0] = VERSION;
+            chunk[1] = (byte) (chunkSize >>> 24);
+            chunk[2] = (byte) (chunkSize >>> 16);
+            chunk[3] = (byte) (chunkSize >>> 8);
+            chunk[4] = (byte) chunkSize;
+            digest.update(chunk, HEADER_LENGTH, length);
+            publishResumable(wrapper, prefix + index, chunk, qos, resumeTimeoutMillis);
+            size += length;
+            index++;
+            if (length < chunkSize) {
+                break;
+            }
+        }
+        Manifest manifest = new Manifest();
+        manifest.setName(name);
+        manifest.setSize(size);
+        manifest.setChunkSize(chunkSize);
+        manifest.setChunks(index);
+        manifest.setSha256(toHex(digest.digest()));
+        publishResumable(wrapper, prefix + MANIFEST, MANIFEST_MAPPER.writeValueAsBytes(manifest), qos, resumeTimeoutMillis);
+        logger.info("分块传输完成 [主题: {}, 传输ID: {}, 大小: {}, 块数: {}]", topic, transferId, size, index);
+        return transferId;
+    }
+
+    /**
+     * 等待客户端就绪，数据块不经过就绪前发布缓冲，避免整个传输被复制到内存
+     */
+    private static void awaitReady(MqttClientWrapper wrapper, String topic, long timeoutMillis)
+            throws MqttException, InterruptedIOException {
+        try {
+            wrapper.getReadyFuture().get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待客户端就绪被中断: " + topic);
+        } catch (ExecutionException | TimeoutException e) {
+            logger.warn("客户端未就绪，无法开始分块传输 [主题: {}]", topic);
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+        }
+    }
+
+    private static void publishResumable(MqttClientWrapper wrapper, String topic, byte[] payload, int qos,
+                                         long resumeTimeoutMillis) throws MqttException, InterruptedIOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(resumeTimeoutMillis);
+        while (true) {
+            try {
+                MqttMessage message = new MqttMessage(payload);
+                message.setQos(qos);
+                wrapper.publish(topic, message);
+                return;
+            } catch (MqttException e) {
+                if (!isRetryable(e) || System.nanoTime() - deadline > 0) {
+                    throw e;
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("分块发送暂停，等待重试 [主题: {}]: {}", topic, e.getMessage());
+                }
+            }
+            try {
+                Thread.sleep(RETRY_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("分块发送被中断: " + topic);
+            }
+        }
+    }
+
+    private static boolean isRetryable(MqttException e) {
+        switch (e.getReasonCode()) {
+            case MqttException.REASON_CODE_MAX_INFLIGHT:
+            case MqttException.REASON_CODE_CLIENT_NOT_CONNECTED:
+            case MqttException.REASON_CODE_CONNECTION_LOST:
+            case MqttException.REASON_CODE_CLIENT_TIMEOUT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int n = in.read(buffer, offset + total, length - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    static Manifest readManifest(byte[] payload) throws IOException {
+        return MANIFEST_MAPPER.readValue(payload, Manifest.class);
+    }
+
+    /**
+     * 传输清单
+     */
+    static class Manifest {
+        private String name;
+        private long size;
+        private int chunkSize;
+        private int chunks;
+        private String sha256;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        public int getChunks() {
+            return chunks;
+        }
+
+        public void setChunks(int chunks) {
+            this.chunks = chunks;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        public void setSha256(String sha256) {
+            this.sha256 = sha256;
+        }
+    }
+}
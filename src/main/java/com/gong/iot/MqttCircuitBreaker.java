@@ -0,0 +1,152 @@
+package com.gong.iot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 处理器熔断器
+ * <p>
+ * 基于最近 N 次调用的计数窗口统计失败率和慢调用率，任一超过阈值即打开；
+ * 打开期间拒绝调用，超过打开时长后进入半开状态，放行少量试探调用，全部成功则关闭，否则重新打开。
+ * 关闭状态下 {@link #tryAcquire()} 只读取一次 volatile 变量，不加锁。
+ */
+public class MqttCircuitBreaker {
+    private static final Logger logger = LoggerFactory.getLogger(MqttCircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final String name;
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final int minimumCalls;
+    private final long openNanos;
+    private final int halfOpenCalls;
+
+    // 环形窗口，每个元素记录一次调用结果（FAILED | SLOW）
+    private final byte[] outcomes;
+    private int index;
+    private int calls;
+    private int failures;
+    private int slowCalls;
+
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private int trialPermits;
+    private int trialSuccesses;
+
+    /**
+     * @param name 名称，用于日志
+     * @param config 熔断配置
+     */
+    public MqttCircuitBreaker(String name, MqttProperties.CircuitBreakerConfig config) {
+        this.name = name;
+        this.failureRateThreshold = config.getFailureRateThreshold();
+        this.slowCallRateThreshold = config.getSlowCallRateThreshold();
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(config.getSlowCallDuration());
+        this.outcomes = new byte[Math.max(1, config.getSlidingWindowSize())];
+        this.minimumCalls = Math.max(1, Math.min(config.getMinimumCalls(), outcomes.length));
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(config.getOpenDuration());
+        this.halfOpenCalls = Math.max(1, config.getHalfOpenCalls());
+    }
+
+    /**
+     * 申请一次调用
+     * @return 是否允许调用，允许时调用结束后（包括抛出任何异常）必须调用 {@link #onResult(long, boolean)}，
+     * 否则半开状态的试探许可不会归还，熔断器停留在半开状态
+     */
+    public boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAt < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trialPermits = halfOpenCalls;
+                trialSuccesses = 0;
+                logger.info("熔断器半开，开始试探调用 [处理器: {}]", name);
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialPermits == 0) {
+                    return false;
+                }
+                trialPermits--;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 记录调用结果
+     * @param durationNanos 调用耗时（纳秒）
+     * @param failed 是否失败
+     */
+    public synchronized void onResult(long durationNanos, boolean failed) {
+        boolean slow = durationNanos > slowCallNanos;
+        switch (state) {
+            case CLOSED:
+                record(failed, slow);
+                if (calls >= minimumCalls
+                        && (failures * 100 >= failureRateThreshold * calls || slowCalls * 100 >= slowCallRateThreshold * calls)) {
+                    logger.warn("熔断器打开 [处理器: {}]，最近 {} 次调用失败 {} 次，慢调用 {} 次",
+                            name, calls, failures, slowCalls);
+                    open();
+                }
+                break;
+            case HALF_OPEN:
+                if (failed || slow) {
+                    logger.warn("熔断器试探调用{}，重新打开 [处理器: {}]", failed ? "失败" : "超时", name);
+                    open();
+                } else if (++trialSuccesses >= halfOpenCalls) {
+                    close();
+                }
+                break;
+            default:
+                // 打开前已放行的调用，结果不再统计
+                break;
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    private void record(boolean failed, boolean slow) {
+        if (calls == outcomes.length) {
+            byte evicted = outcomes[index];
+            failures -= evicted & FAILED;
+            slowCalls -= (evicted & SLOW) >> 1;
+        } else {
+            calls++;
+        }
+        byte outcome = (byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0));
+        outcomes[index] = outcome;
+        failures += outcome & FAILED;
+        slowCalls += (outcome & SLOW) >> 1;
+        index = (index + 1) % outcomes.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+    }
+
+    private void close() {
+        calls = 0;
+        index = 0;
+        failures = 0;
+        slowCalls = 0;
+        state = State.CLOSED;
+        logger.info("熔断器关闭 [处理器: {}]", name);
+    }
+}
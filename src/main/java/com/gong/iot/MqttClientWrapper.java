@@ -8,16 +8,62 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 
 public class MqttClientWrapper implements DisposableBean {
 
     private final Logger logger = LoggerFactory.getLogger(MqttClientWrapper.class);
     private final MqttClient client;
     private final EnhancedMqttFactory.SmartReconnectCallback callback;
+    private final MqttPayloadCompressor payloadCompressor;
+    private volatile boolean closed = false;
+    // 就绪且缓冲已发出后为 true，此后发布不再加锁
+    private volatile boolean publishReady = false;
+    // 就绪前的发布缓冲，为 null 时就绪前发布直接失败
+    private final Queue<PendingPublish> pendingPublishes;
+    private final int publishBufferCapacity;
+    private final Object readyLock = new Object();
+    // 回调线程池排空后、断开连接前依次执行
+    private final List<DrainTask> drainTasks = new CopyOnWriteArrayList<>();
 
     public MqttClientWrapper(MqttClient client, EnhancedMqttFactory.SmartReconnectCallback callback) {
+        this(client, callback, null);
+    }
+
+    public MqttClientWrapper(MqttClient client, EnhancedMqttFactory.SmartReconnectCallback callback,
+                             MqttPayloadCompressor payloadCompressor) {
+        this(client, callback, payloadCompressor, 0);
+    }
+
+    public MqttClientWrapper(MqttClient client, EnhancedMqttFactory.SmartReconnectCallback callback,
+                             MqttPayloadCompressor payloadCompressor, int publishBufferCapacity) {
         this.client = client;
         this.callback = callback;
+        this.payloadCompressor = payloadCompressor;
+        this.pendingPublishes = publishBufferCapacity > 0 ? new ArrayDeque<>(publishBufferCapacity) : null;
+        this.publishBufferCapacity = publishBufferCapacity;
+        if (callback != null && pendingPublishes != null) {
+            // 就绪可能发生在重连调度线程中，缓冲的发布会阻塞等待确认，放到单独的线程中发出
+            callback.getReadyFuture().whenCompleteAsync((v, e) -> flushPendingPublishes(e), r -> {
+                Thread thread = new Thread(r, "mqtt-publish-flush");
+                thread.setDaemon(true);
+                thread.start();
+            });
+        } else if (callback != null) {
+            callback.getReadyFuture().thenRun(() -> publishReady = true);
+        } else {
+            publishReady = true;
+        }
     }
 
     public MqttClient getClient() {
@@ -28,38 +74,302 @@ public class MqttClientWrapper implements DisposableBean {
         return callback;
     }
 
+    /**
+     * 排空过程中的附加步骤，如处理器专用线程池
+     */
+    @FunctionalInterface
+    public interface DrainTask {
+        /**
+         * @param timeoutMillis 剩余等待时间（毫秒），可能小于等于 0
+         * @return 是否在超时前完成
+         */
+        boolean drain(long timeoutMillis) throws InterruptedException;
+    }
+
+    /**
+     * 添加排空步骤，在 {@link #drainAndShutdown(long)} 中回调线程池排空之后、断开连接之前执行
+     */
+    public void addDrainTask(DrainTask task) {
+        drainTasks.add(task);
+    }
+
     public void subscribe(String topic) throws MqttException {
-        callback.addSubscribedTopic(topic);
-        client.subscribe(topic);
+        callback.subscribe(topic);
+    }
+
+    public void unsubscribe(String topic) throws MqttException {
+        callback.unsubscribe(topic);
+    }
+
+    /**
+     * 客户端连接并完成订阅后完成
+     */
+    public CompletableFuture<Void> getReadyFuture() {
+        return callback != null ? callback.getReadyFuture() : CompletableFuture.completedFuture(null);
+    }
+
+    public boolean isReady() {
+        return getReadyFuture().isDone() && !getReadyFuture().isCompletedExceptionally();
+    }
+
+    /**
+     * 初始订阅已完成，由 {@link EnhancedMqttFactory.Builder#deferReady(boolean)} 暂缓的就绪在已连接时立即完成
+     */
+    public void releaseReady() {
+        if (callback != null) {
+            callback.releaseReady();
+        }
     }
 
     public void publish(String topic, byte[] payload, int qos, boolean retained) throws MqttException {
         if(logger.isDebugEnabled()){
             logger.debug("发布消息到主题: {}, Qos: {}, Retained: {}", topic, qos, retained);
         }
-        client.publish(topic, payload, 0, false);
+        byte[] compressed = compress(topic, payload);
+        if (!publishReady && bufferBeforeReady(topic, compressed, qos, retained)) {
+            return;
+        }
+        Object jfrEvent = MqttFlightRecorder.beginPublish();
+        try {
+            client.publish(topic, compressed, qos, retained);
+        } finally {
+            MqttFlightRecorder.endPublish(jfrEvent, topic, compressed.length, qos, retained);
+        }
     }
 
     public void publish(String topic, MqttMessage message) throws MqttException, MqttPersistenceException {
         if(logger.isDebugEnabled()){
             logger.debug("发布消息到主题: {}, Qos: {}", topic, message.getQos());
         }
-        client.publish(topic, message);
+        if (payloadCompressor != null) {
+            byte[] payload = message.getPayload();
+            byte[] compressed = payloadCompressor.compress(topic, payload);
+            if (compressed != payload) {
+                // 不修改调用方传入的消息对象
+                MqttMessage copy = new MqttMessage(compressed);
+                copy.setQos(message.getQos());
+                copy.setRetained(message.isRetained());
+                message = copy;
+            }
+        }
+        if (!publishReady && bufferBeforeReady(topic, message.getPayload(), message.getQos(), message.isRetained())) {
+            return;
+        }
+        Object jfrEvent = MqttFlightRecorder.beginPublish();
+        try {
+            client.publish(topic, message);
+        } finally {
+            MqttFlightRecorder.endPublish(jfrEvent, topic, message.getPayload().length, message.getQos(), message.isRetained());
+        }
+    }
+
+    /**
+     * 就绪前的发布处理：有缓冲时放入缓冲，否则直接失败
+     * @return 是否已放入缓冲，false 表示此时已就绪，可直接发布
+     */
+    private boolean bufferBeforeReady(String topic, byte[] payload, int qos, boolean retained) throws MqttException {
+        synchronized (this.readyLock) {
+            if (publishReady) {
+                return false;
+            }
+            if (pendingPublishes == null) {
+                throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+            }
+            if (pendingPublishes.size() >= publishBufferCapacity) {
+                logger.warn("就绪前发布缓冲已满，丢弃主题 {} 的消息", topic);
+                throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+            }
+            pendingPublishes.offer(new PendingPublish(topic, payload, qos, retained));
+            return true;
+        }
+    }
+
+    /**
+     * 分块发送文件，名称为文件名
+     * @see #publishChunked(String, InputStream, String, int, int, long)
+     */
+    public String publishChunked(String topic, Path file) throws IOException, MqttException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return publishChunked(topic, in, file.getFileName().toString());
+        }
+    }
+
+    /**
+     * 使用默认块大小（256KB）和 QoS 1 分块发送
+     * @see #publishChunked(String, InputStream, String, int, int, long)
+     */
+    public String publishChunked(String topic, InputStream in, String name) throws IOException, MqttException {
+        return publishChunked(topic, in, name, MqttChunkedTransfer.DEFAULT_CHUNK_SIZE,
+                MqttChunkedTransfer.DEFAULT_QOS, MqttChunkedTransfer.DEFAULT_RESUME_TIMEOUT);
+    }
+
+    /**
+     * 分块发送大消息，接收方使用 {@code @MqttTopic(value = topic, chunked = true)} 的处理器
+     * <p>
+     * 在调用线程中边读边发，内存中只保留在途的数据块；连接断开时等待重连后从失败的数据块继续发送。
+     * 客户端就绪前调用时先等待就绪（最长 resumeTimeoutMillis），数据块不进入就绪前发布缓冲。
+     * 接收方需使用持久会话（clean-session=false），否则断线期间发出的数据块不会被 Broker 保留，续传无法完成。
+     * @param topic 基础主题，数据块发布到 {@code topic/<transferId>/<序号>}
+     * @param in 内容输入流，由调用方关闭
+     * @param name 名称，随清单发送给接收方，可为空
+     * @param chunkSize 块大小（字节），需小于 Broker 允许的最大报文长度
+     * @param qos 消息质量等级
+     * @param resumeTimeoutMillis 单个数据块发送失败后等待重连续传的最长时间（毫秒）
+     * @return 传输ID
+     * @throws IOException 如果读取输入流失败
+     * @throws MqttException 如果等待就绪超时，或发送失败且无法续传
+     */
+    public String publishChunked(String topic, InputStream in, String name, int chunkSize, int qos,
+                                 long resumeTimeoutMillis) throws IOException, MqttException {
+        return MqttChunkedTransfer.send(this, topic, in, name, chunkSize, qos, resumeTimeoutMillis);
+    }
+
+    /**
+     * 按顺序发出缓冲的消息，发布在锁外进行；发送期间新的发布继续进入缓冲，缓冲清空后才切换为直接发布
+     */
+    private void flushPendingPublishes(Throwable failure) {
+        if (failure != null) {
+            discardPendingPublishes("客户端未能就绪");
+            return;
+        }
+        while (true) {
+            List<PendingPublish> batch;
+            synchronized (this.readyLock) {
+                if (pendingPublishes.isEmpty() || closed) {
+                    publishReady = true;
+                    return;
+                }
+                batch = new ArrayList<>(pendingPublishes);
+                pendingPublishes.clear();
+            }
+            logger.info("客户端已就绪，发送 {} 条缓冲的消息", batch.size());
+            for (PendingPublish pending : batch) {
+                try {
+                    client.publish(pending.topic, pending.payload, pending.qos, pending.retained);
+                } catch (MqttException e) {
+                    logger.error("发送缓冲消息失败 [主题: {}]: {}", pending.topic, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void discardPendingPublishes(String reason) {
+        if (pendingPublishes == null) {
+            return;
+        }
+        synchronized (this.readyLock) {
+            if (!pendingPublishes.isEmpty()) {
+                logger.error("{}，丢弃 {} 条缓冲的消息", reason, pendingPublishes.size());
+                pendingPublishes.clear();
+            }
+        }
+    }
+
+    private static class PendingPublish {
+        final String topic;
+        final byte[] payload;
+        final int qos;
+        final boolean retained;
+
+        PendingPublish(String topic, byte[] payload, int qos, boolean retained) {
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+            this.retained = retained;
+        }
+    }
+
+    private byte[] compress(String topic, byte[] payload) {
+        return payloadCompressor != null ? payloadCompressor.compress(topic, payload) : payload;
     }
 
     public synchronized void shutdown() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        discardPendingPublishes("客户端在就绪前关闭");
+        String clientId = client.getClientId();
         try {
-            String clientId = client.getClientId();
             if (client.isConnected()) {
                 logger.info("MQTTClientWrapper clientId:{} closing...",clientId);
                 client.disconnect(); // 优雅断开连接
             }
-            logger.info("MQTTClientWrapper clientId:{} closed.", clientId);
-            client.close(true);      // 强制关闭客户端
+        } catch (MqttException e) {
+            logger.error("客户端关闭异常: {}", e.getMessage());
+        } finally {
+            closeClient(clientId);   // 强制关闭客户端
             if (callback != null) {
                 logger.info("MQTTClientWrapper clientId:{} callback shutdown.",clientId);
-                callback.shutdown();     // 关闭回调线程池
+                callback.shutdown();     // 停止重连调度
+                callback.shutdownCallbacks(); // 关闭回调线程池
             }
+        }
+    }
+
+    /**
+     * 排空后关闭：停止重连 → 退订所有主题 → 停止接收 → 等待已排队的回调处理完成 → 执行排空步骤（如处理器专用线程池）
+     * → 等待未完成的发布后断开连接
+     * @param timeoutMillis 整个过程的最长等待时间（毫秒）
+     */
+    public synchronized void drainAndShutdown(long timeoutMillis) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        discardPendingPublishes("客户端在就绪前关闭");
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        String clientId = client.getClientId();
+        logger.info("MQTTClientWrapper clientId:{} draining...", clientId);
+        try {
+            if (callback != null) {
+                // 先停止重连，避免排空过程中重新订阅
+                callback.shutdown();
+            }
+            if (client.isConnected() && callback != null && !callback.getSubscribedTopics().isEmpty()) {
+                try {
+                    client.unsubscribe(callback.getSubscribedTopics().toArray(new String[0]));
+                } catch (MqttException e) {
+                    logger.warn("退订主题失败: {}", e.getMessage());
+                }
+            }
+            if (callback != null) {
+                callback.stopIntake();
+                if (callback.drainCallbacks(deadline - System.currentTimeMillis())) {
+                    logger.info("MQTTClientWrapper clientId:{} callbacks drained.", clientId);
+                }
+            }
+            for (DrainTask task : drainTasks) {
+                // 单个排空步骤失败不影响其余步骤和断开连接
+                try {
+                    task.drain(deadline - System.currentTimeMillis());
+                } catch (RuntimeException e) {
+                    logger.error("排空步骤执行异常: {}", e.getMessage());
+                }
+            }
+            if (client.isConnected()) {
+                long quiesce = deadline - System.currentTimeMillis();
+                // 剩余时间用于等待未完成的发布，时间耗尽则直接断开
+                client.disconnect(Math.max(quiesce, 0));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("MQTTClientWrapper clientId:{} 排空被中断", clientId);
+        } catch (MqttException e) {
+            logger.error("客户端关闭异常: {}", e.getMessage());
+        } finally {
+            // closed 已置位，destroy 不会再关闭，这里必须释放客户端线程和持久化
+            closeClient(clientId);
+        }
+    }
+
+    /**
+     * 强制关闭客户端，未断开时同样关闭
+     */
+    private void closeClient(String clientId) {
+        try {
+            client.close(true);
+            logger.info("MQTTClientWrapper clientId:{} closed.", clientId);
         } catch (MqttException e) {
             logger.error("客户端关闭异常: {}", e.getMessage());
         }
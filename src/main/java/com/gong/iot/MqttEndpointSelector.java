@@ -0,0 +1,205 @@
+package com.gong.iot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 多 Broker 节点选择
+ * <p>
+ * 通过 TCP 建连耗时探测各节点延迟（指数加权平均），连接时按"可用优先、延迟从低到高"排序，
+ * 作为 {@link org.eclipse.paho.client.mqttv3.MqttConnectOptions#setServerURIs(String[])} 的顺序。
+ * 各节点在独立的探测线程中并行探测，一轮探测最多等待两倍探测超时；
+ * 定期探测由 mqtt-failover 线程发起，不占用重连调度线程。
+ */
+public class MqttEndpointSelector {
+    private static final Logger logger = LoggerFactory.getLogger(MqttEndpointSelector.class);
+    // 新探测结果的权重
+    private static final double EWMA_WEIGHT = 0.3;
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final int probeTimeout;
+    // 每个节点一个线程，空闲时回收
+    private final ThreadPoolExecutor probeExecutor;
+
+    /**
+     * @param serverUris Broker 地址列表，顺序即延迟未知时的优先级
+     * @param probeTimeout 单个节点探测超时时间（毫秒）
+     */
+    public MqttEndpointSelector(List<String> serverUris, int probeTimeout) {
+        for (String uri : serverUris) {
+            endpoints.add(new Endpoint(uri));
+        }
+        this.probeTimeout = probeTimeout;
+        int threads = Math.max(1, endpoints.size());
+        this.probeExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "mqtt-endpoint-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.probeExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 并行探测所有节点，等待本轮探测全部完成
+     */
+    public void probeAll() {
+        List<Future<?>> probes = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            probes.add(probeExecutor.submit(() -> probe(endpoint)));
+        }
+        // 建连超时之外留出余量，DNS 解析不受 probeTimeout 限制
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(probeTimeout * 2L);
+        for (Future<?> probe : probes) {
+            try {
+                probe.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException | TimeoutException e) {
+                // 未完成的探测保留上一轮结果
+                logger.warn("Broker 节点探测未完成: {}", e.toString());
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Broker 节点探测结果: {}", endpoints);
+        }
+    }
+
+    /**
+     * 关闭探测线程
+     */
+    public void shutdown() {
+        probeExecutor.shutdownNow();
+    }
+
+    private void probe(Endpoint endpoint) {
+        long start = System.nanoTime();
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(endpoint.host, endpoint.port), probeTimeout);
+            long latency = System.nanoTime() - start;
+            endpoint.latency = endpoint.latency == Long.MAX_VALUE ?
+                    latency : (long) (endpoint.latency * (1 - EWMA_WEIGHT) + latency * EWMA_WEIGHT);
+            if (!endpoint.healthy) {
+                logger.info("Broker 节点恢复: {}", endpoint.uri);
+            }
+            endpoint.healthy = true;
+        } catch (IOException e) {
+            if (endpoint.healthy) {
+                logger.warn("Broker 节点不可用: {} ({})", endpoint.uri, e.getMessage());
+            }
+            endpoint.healthy = false;
+        }
+    }
+
+    /**
+     * 按可用性和延迟排序后的地址列表
+     */
+    public String[] orderedUris() {
+        List<Endpoint> sorted = new ArrayList<>(endpoints);
+        // 稳定排序，延迟相同（或未知）时保持配置顺序
+        sorted.sort(Comparator.comparing((Endpoint e) -> !e.healthy).thenComparingLong(e -> e.latency));
+        String[] uris = new String[sorted.size()];
+        for (int i = 0; i < uris.length; i++) {
+            uris[i] = sorted.get(i).uri;
+        }
+        return uris;
+    }
+
+    /**
+     * 标记节点不可用，下次连接时排到最后，直到探测成功
+     */
+    public void markDown(String uri) {
+        Endpoint endpoint = find(uri);
+        if (endpoint != null) {
+            endpoint.healthy = false;
+        }
+    }
+
+    /**
+     * 是否存在除当前节点以外的可用节点
+     */
+    public boolean hasHealthyAlternative(String currentUri) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.healthy && !endpoint.uri.equals(currentUri)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 判断是否需要切回延迟更低的节点
+     * @param currentUri 当前连接的节点
+     * @param ratio 最优节点延迟低于当前节点延迟的该比例时才切换，避免抖动
+     */
+    public boolean shouldFailBack(String currentUri, double ratio) {
+        Endpoint current = find(currentUri);
+        if (current == null || !current.healthy || current.latency == Long.MAX_VALUE) {
+            return false;
+        }
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint != current && endpoint.healthy && endpoint.latency < current.latency * ratio) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Endpoint find(String uri) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.uri.equals(uri)) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    private static class Endpoint {
+        final String uri;
+        final String host;
+        final int port;
+        volatile boolean healthy = true;
+        // 纳秒，未探测时为 Long.MAX_VALUE
+        volatile long latency = Long.MAX_VALUE;
+
+        Endpoint(String uri) {
+            this.uri = uri;
+            URI parsed = URI.create(uri);
+            this.host = parsed.getHost();
+            this.port = parsed.getPort() > 0 ? parsed.getPort() : defaultPort(parsed.getScheme());
+        }
+
+        private static int defaultPort(String scheme) {
+            switch (scheme) {
+                case "ssl":
+                    return 8883;
+                case "ws":
+                    return 80;
+                case "wss":
+                    return 443;
+                default:
+                    return 1883;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return uri + (healthy ? "(" + (latency == Long.MAX_VALUE ? "-" : latency / 1000 + "us") + ")" : "(down)");
+        }
+    }
+}
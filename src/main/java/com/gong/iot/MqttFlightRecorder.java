@@ -0,0 +1,110 @@
+package com.gong.iot;
+
+/**
+ * MQTT JFR 事件入口
+ * <p>
+ * 运行环境不支持 JFR（如 8u262 之前的 JDK 8）或设置了 {@code -Dmqtt.jfr.enabled=false} 时所有方法直接返回；
+ * 支持时只有耗时超过事件阈值且正在录制时才会提交事件；未在录制时 begin 方法返回 null，不创建事件，
+ * 调用方应据此跳过仅用于事件的计时和统计。
+ */
+public final class MqttFlightRecorder {
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("mqtt.jfr.enabled", "true"))
+            && isJfrPresent();
+
+    // 当前回调线程中消息的排队时间，供处理器事件使用
+    private static final ThreadLocal<long[]> QUEUE_WAIT = ENABLED ? ThreadLocal.withInitial(() -> new long[1]) : null;
+
+    private MqttFlightRecorder() {
+    }
+
+    private static boolean isJfrPresent() {
+        try {
+            Class.forName("jdk.jfr.Event", false, MqttFlightRecorder.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    static Object beginReceived() {
+        return ENABLED ? MqttJfrEvents.beginReceived() : null;
+    }
+
+    static void endReceived(Object event, String topic, int payloadSize, int qos) {
+        if (event != null) {
+            MqttJfrEvents.endReceived(event, topic, payloadSize, qos);
+        }
+    }
+
+    static Object beginDispatchQueued() {
+        return ENABLED ? MqttJfrEvents.beginDispatchQueued() : null;
+    }
+
+    /**
+     * 在回调线程开始执行时调用，记录排队时间
+     * @param enqueuedAt 入队时的 {@link System#nanoTime()}
+     */
+    static void endDispatchQueued(Object event, String topic, int queueSize, long enqueuedAt) {
+        if (event != null) {
+            QUEUE_WAIT.get()[0] = System.nanoTime() - enqueuedAt;
+            MqttJfrEvents.endDispatchQueued(event, topic, queueSize);
+        }
+    }
+
+    static void clearQueueWait() {
+        if (ENABLED) {
+            QUEUE_WAIT.get()[0] = 0;
+        }
+    }
+
+    /**
+     * 消息从当前线程转交给其他线程池前调用，返回值在接手线程中传给 {@link #resumeQueueWait(long)}
+     * @return 扣除当前线程中已记录的排队时间后的转交时刻，未录制时为 0
+     */
+    static long handOff() {
+        if (!ENABLED || !MqttJfrEvents.isRecording()) {
+            return 0;
+        }
+        return System.nanoTime() - QUEUE_WAIT.get()[0];
+    }
+
+    /**
+     * 接手线程开始执行时调用，排队时间为转交前的排队时间加上在该线程池中的排队时间
+     * @param handedOffAt {@link #handOff()} 的返回值
+     */
+    static void resumeQueueWait(long handedOffAt) {
+        if (ENABLED) {
+            QUEUE_WAIT.get()[0] = handedOffAt != 0 ? System.nanoTime() - handedOffAt : 0;
+        }
+    }
+
+    static Object beginHandlerInvoked() {
+        return ENABLED ? MqttJfrEvents.beginHandlerInvoked() : null;
+    }
+
+    static void endHandlerInvoked(Object event, String topicFilter, String topic, Class<?> handler, int payloadSize) {
+        if (event != null) {
+            MqttJfrEvents.endHandlerInvoked(event, topicFilter, topic, handler, payloadSize, QUEUE_WAIT.get()[0]);
+        }
+    }
+
+    static Object beginPublish() {
+        return ENABLED ? MqttJfrEvents.beginPublish() : null;
+    }
+
+    static void endPublish(Object event, String topic, int payloadSize, int qos, boolean retained) {
+        if (event != null) {
+            MqttJfrEvents.endPublish(event, topic, payloadSize, qos, retained);
+        }
+    }
+
+    static Object beginReconnect() {
+        return ENABLED ? MqttJfrEvents.beginReconnect() : null;
+    }
+
+    static void endReconnect(Object event, String serverUri, int attempt, boolean success) {
+        if (event != null) {
+            MqttJfrEvents.endReconnect(event, serverUri, attempt, success);
+        }
+    }
+}
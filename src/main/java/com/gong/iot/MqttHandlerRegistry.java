@@ -2,65 +2,353 @@ package com.gong.iot;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.type.TypeFactory;
+import org.eclipse.paho.client.mqttv3.MqttException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.core.env.Environment;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /**
  * MQTT 消息处理器注册
+ * <p>
+ * 路由信息保存在不可变快照中，注册变更时构建新快照整体替换，消息分发只读取当前快照，不加锁。
  */
-public class MqttHandlerRegistry {
+public class MqttHandlerRegistry implements DisposableBean {
     private static final Logger logger = LoggerFactory.getLogger(MqttHandlerRegistry.class);
-    private final Map<Pattern, HandlerWrapper<?>> handlerMap = new ConcurrentHashMap<>();
+    // 运行时注册的处理器类上没有注解时使用的默认配置
+    private static final MqttTopic DEFAULT_OPTIONS = DefaultOptions.class.getAnnotation(MqttTopic.class);
+
+    private volatile RoutingTable routes = RoutingTable.EMPTY;
+    // 串行化注册变更及对应的订阅操作
+    private final Object registrationLock = new Object();
+    // 绑定后运行时注册/注销会同步订阅/取消订阅
+    private MqttClientWrapper client;
     private final TypeFactory typeFactory = TypeFactory.defaultInstance();
+    // 窗口聚合、分块传输超时检查等定时任务，需要时才创建
+    private ScheduledExecutorService scheduler;
 
     @Autowired
     private ObjectMapper objectMapper;
 
     @Autowired
     private Environment env;
+
+    @Autowired
+    private BeanFactory beanFactory;
+
+    @Autowired
+    private MqttProperties properties;
+
+    // 公共回调线程池，聚合结果和暂存消息在此执行，不占用 mqtt-registry-timer
+    @Autowired(required = false)
+    @Qualifier("mqttThreadPoolExecutor")
+    private Executor callbackExecutor;
+
     @Autowired
     public void registerHandlers(ObjectProvider<MqttMessageHandler<?>> handlers) {
+        List<HandlerWrapper<?>> wrappers = new ArrayList<>();
         handlers.forEach(handler -> {
             MqttTopic annotation = handler.getClass().getAnnotation(MqttTopic.class);
             if (annotation != null) {
                 Class<?> payloadType = resolvePayloadType(handler);
-                registerHandler(handler, payloadType, annotation);
+                //如果是spring ${}, 则替换为环境变量的值
+                wrappers.add(createHandler(handler, payloadType, annotation, env.resolvePlaceholders(annotation.value())));
             }
         });
+        synchronized (registrationLock) {
+            routes = routes.with(wrappers);
+        }
+    }
+
+    /**
+     * 绑定客户端并订阅当前所有处理器的主题，之后运行时注册/注销会同步订阅/取消订阅
+     */
+    void bindClient(MqttClientWrapper wrapper) {
+        synchronized (registrationLock) {
+            this.client = wrapper;
+            wrapper.addDrainTask(this::drainExecutors);
+            for (String topic : getSubscribedTopics()) {
+                try {
+                    wrapper.subscribe(topic);
+                    logger.info("自动订阅MQTT主题: {}", topic);
+                } catch (MqttException e) {
+                    logger.error("订阅主题失败: {}", topic, e);
+                }
+            }
+        }
     }
 
-    private void registerHandler(
+    /**
+     * 运行时注册处理器，主题尚未订阅时立即订阅
+     * <p>
+     * 处理器类上的 {@link MqttTopic} 注解（如有）提供过滤、隔离、聚合等配置，主题以参数为准；
+     * 消息类型从处理器实现的泛型接口解析，lambda 等无法解析时使用 {@link #register(String, Class, MqttMessageHandler)}。
+     * @param topic 主题，支持 + 和 # 通配符
+     * @param handler 处理器，同一实例可注册到多个主题
+     * @throws MqttException 如果订阅失败，此时注册被撤销
+     */
+    public void register(String topic, MqttMessageHandler<?> handler) throws MqttException {
+        registerInternal(topic, resolvePayloadType(handler), handler);
+    }
+
+    /**
+     * 运行时注册处理器，指定消息类型
+     * @see #register(String, MqttMessageHandler)
+     */
+    public <T> void register(String topic, Class<T> payloadType, MqttMessageHandler<T> handler) throws MqttException {
+        registerInternal(topic, payloadType, handler);
+    }
+
+    private void registerInternal(String topic, Class<?> payloadType, MqttMessageHandler<?> handler) throws MqttException {
+        MqttTopic annotation = handler.getClass().getAnnotation(MqttTopic.class);
+        HandlerWrapper<?> wrapper = createHandler(handler, payloadType,
+                annotation != null ? annotation : DEFAULT_OPTIONS, topic);
+        synchronized (registrationLock) {
+            RoutingTable previous = routes;
+            routes = previous.with(Collections.singletonList(wrapper));
+            if (client != null && !previous.hasTopic(wrapper.originalTopic)) {
+                try {
+                    client.subscribe(wrapper.originalTopic);
+                } catch (MqttException e) {
+                    routes = routes.without(registered -> registered == wrapper);
+                    release(wrapper);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * 注销处理器实例的所有注册，不再有处理器使用的主题同时取消订阅（{@code spring.mqtt.topics} 中配置的除外）
+     * @param handler 处理器
+     * @return 是否存在该处理器的注册
+     * @throws MqttException 如果取消订阅失败，此时处理器已注销
+     */
+    public boolean unregister(MqttMessageHandler<?> handler) throws MqttException {
+        synchronized (registrationLock) {
+            RoutingTable previous = routes;
+            RoutingTable next = previous.without(registered -> registered.handler == handler);
+            if (next == previous) {
+                return false;
+            }
+            routes = next;
+            Set<String> unused = new LinkedHashSet<>();
+            for (HandlerWrapper<?> wrapper : previous.all) {
+                if (wrapper.handler == handler) {
+                    release(wrapper);
+                    if (!next.hasTopic(wrapper.originalTopic) && !properties.getTopics().contains(wrapper.originalTopic)) {
+                        unused.add(wrapper.originalTopic);
+                    }
+                }
+            }
+            logger.info("注销处理器 {}", handler.getClass());
+            if (client != null) {
+                for (String topic : unused) {
+                    client.unsubscribe(topic);
+                }
+            }
+            return true;
+        }
+    }
+
+    private HandlerWrapper<?> createHandler(
             MqttMessageHandler<?> handler,
             Class<?> payloadType,
-            MqttTopic annotation
+            MqttTopic annotation,
+            String value
     ) {
-        //如果是spring ${}, 则替换为环境变量的值
-        String value = env.resolvePlaceholders(annotation.value());
-        String patternStr = value
-                .replace("+", "[^/]+")
-                .replace("#", ".*");
-
-        Pattern pattern = Pattern.compile(patternStr);
-        handlerMap.put(pattern, new HandlerWrapper<>(
+        if (annotation.chunked()) {
+            if (value.contains("#")) {
+                throw new IllegalStateException("分块传输处理器的主题不能包含 #: " + value);
+            }
+            // 数据块和清单发布在 <value>/<transferId>/<序号|manifest>
+            value = value + "/+/+";
+        }
+        String filterExpr = env.resolvePlaceholders(annotation.filter());
+        MqttPayloadFilter filter = filterExpr.trim().isEmpty() ? null : MqttPayloadFilter.compile(filterExpr, objectMapper);
+        if (annotation.chunked() && (filter != null || !annotation.aggregate().isEmpty())) {
+            throw new IllegalStateException("分块传输处理器不能配置 filter 或 aggregate: " + handler.getClass().getName());
+        }
+        HandlerWrapper<?> wrapper = new HandlerWrapper<>(
                 handler,
                 payloadType,
                 value,
-                annotation.qos()
-        ));
+                annotation.qos(),
+                filter
+        );
+        configureBulkhead(wrapper, annotation);
+        configureAggregate(wrapper, annotation);
+        configureChunked(wrapper, annotation);
+        if (filter != null) {
+            logger.info("注册处理器 [主题: {}, 过滤: {}] => {}", value, filter, handler.getClass());
+        } else {
+            logger.info("注册处理器 [主题: {}] => {}", value, handler.getClass());
+        }
+        return wrapper;
+    }
+
+    /**
+     * 释放注销的处理器占用的定时任务、暂存消息和临时文件，聚合处理器先投递未结束的窗口
+     */
+    private void release(HandlerWrapper<?> wrapper) {
+        if (wrapper.aggregator != null) {
+            wrapper.aggregator.close();
+        }
+        for (ScheduledFuture<?> task : wrapper.tasks) {
+            task.cancel(false);
+        }
+        if (wrapper.assembler != null) {
+            wrapper.assembler.close();
+        }
+        if (wrapper.parked != null) {
+            int discarded = wrapper.parked.size();
+            wrapper.parked.clear();
+            if (discarded > 0) {
+                logger.warn("处理器 [{}] 已注销，丢弃 {} 条暂存消息", wrapper.handler.getClass().getSimpleName(), discarded);
+            }
+        }
+    }
 
-        logger.info("注册处理器 [主题: {}] => {}", value, handler.getClass());
+    /**
+     * 优雅关闭时关闭处理器专用线程池并等待已转交的消息处理完成，超时后丢弃排队的消息
+     * <p>
+     * 只处理 {@link ExecutorService} 类型的线程池，其他 {@link Executor} 无法等待，由其所有者负责关闭
+     * @param timeoutMillis 最长等待时间（毫秒）
+     * @return 是否在超时前全部完成
+     */
+    boolean drainExecutors(long timeoutMillis) throws InterruptedException {
+        Set<ExecutorService> executors = new LinkedHashSet<>();
+        for (HandlerWrapper<?> wrapper : routes.all) {
+            if (wrapper.executor instanceof ExecutorService) {
+                executors.add((ExecutorService) wrapper.executor);
+            }
+        }
+        for (ExecutorService executor : executors) {
+            executor.shutdown();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(timeoutMillis, 0));
+        boolean drained = true;
+        for (ExecutorService executor : executors) {
+            if (!executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                int dropped = executor.shutdownNow().size();
+                logger.warn("处理器线程池未在 {}ms 内处理完成，丢弃 {} 条排队消息", timeoutMillis, dropped);
+                drained = false;
+            }
+        }
+        return drained;
+    }
+
+    private void configureBulkhead(HandlerWrapper<?> wrapper, MqttTopic annotation) {
+        String handlerName = wrapper.handler.getClass().getSimpleName();
+        String executorName = env.resolvePlaceholders(annotation.executor()).trim();
+        if (!executorName.isEmpty()) {
+            wrapper.executor = beanFactory.getBean(executorName, Executor.class);
+        }
+        if (annotation.maxConcurrency() > 0) {
+            wrapper.permits = new Semaphore(annotation.maxConcurrency());
+            wrapper.permitWaitMillis = annotation.maxConcurrencyWait();
+        }
+        if (annotation.circuitBreaker()) {
+            MqttProperties.CircuitBreakerConfig config = properties.getCircuitBreaker();
+            wrapper.circuitBreaker = new MqttCircuitBreaker(handlerName, config);
+            if (config.getParkCapacity() > 0) {
+                wrapper.parked = new ArrayBlockingQueue<>(config.getParkCapacity());
+            }
+        }
+        if (wrapper.executor != null || wrapper.permits != null || wrapper.circuitBreaker != null) {
+            logger.info("处理器隔离 [{}] 线程池: {}, 最大并发: {}, 熔断: {}", handlerName,
+                    executorName.isEmpty() ? "-" : executorName,
+                    wrapper.permits != null ? annotation.maxConcurrency() : "-",
+                    wrapper.circuitBreaker != null);
+        }
+    }
+
+    private void configureAggregate(HandlerWrapper<?> wrapper, MqttTopic annotation) {
+        String field = env.resolvePlaceholders(annotation.aggregate()).trim();
+        if (field.isEmpty()) {
+            return;
+        }
+        String handlerName = wrapper.handler.getClass().getSimpleName();
+        if (wrapper.payloadType != MqttAggregate.class) {
+            throw new IllegalStateException("聚合处理器的消息类型必须为 MqttAggregate: " + wrapper.handler.getClass().getName());
+        }
+        MqttWindowAggregator aggregator = new MqttWindowAggregator(handlerName, field, annotation.keySegment(),
+                annotation.window(), annotation.windowSlide(), objectMapper.getFactory(),
+                (topic, aggregate) -> submitAsync(wrapper, topic, aggregate));
+        // 对齐到窗格边界
+        long pane = aggregator.getPaneMillis();
+        wrapper.tasks.add(scheduler().scheduleAtFixedRate(aggregator::flush,
+                pane - System.currentTimeMillis() % pane, pane, TimeUnit.MILLISECONDS));
+        wrapper.aggregator = aggregator;
+        logger.info("处理器聚合 [{}] 字段: {}, 键层级: {}, 窗口: {}ms, 步长: {}ms", handlerName, field,
+                annotation.keySegment(), annotation.window(), pane);
+    }
+
+    private void configureChunked(HandlerWrapper<?> wrapper, MqttTopic annotation) {
+        if (!annotation.chunked()) {
+            return;
+        }
+        String handlerName = wrapper.handler.getClass().getSimpleName();
+        if (wrapper.payloadType != MqttTransfer.class) {
+            throw new IllegalStateException("分块传输处理器的消息类型必须为 MqttTransfer: " + wrapper.handler.getClass().getName());
+        }
+        MqttProperties.ChunkedConfig config = properties.getChunked();
+        MqttChunkAssembler assembler;
+        try {
+            assembler = new MqttChunkAssembler(handlerName, config,
+                    (topic, transfer) -> submit(wrapper, topic, null, transfer));
+        } catch (IOException e) {
+            throw new UncheckedIOException("创建分块传输临时目录失败: " + config.getTempDir(), e);
+        }
+        long checkInterval = Math.max(1000, Math.min(60000, config.getTransferTimeout() / 4));
+        wrapper.tasks.add(scheduler().scheduleWithFixedDelay(assembler::expire, checkInterval, checkInterval, TimeUnit.MILLISECONDS));
+        wrapper.assembler = assembler;
+        if (properties.isCleanSession()) {
+            logger.warn("处理器 [{}] 接收分块传输，但 clean-session=true，断线期间的数据块会丢失，传输只能超时放弃", handlerName);
+        }
+        logger.info("处理器分块传输 [{}] 主题: {}", handlerName, wrapper.originalTopic);
+    }
+
+    private synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "mqtt-registry-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
     }
 
     @SuppressWarnings("unchecked")
@@ -71,20 +359,261 @@ public class MqttHandlerRegistry {
         return (Class<T>) typeFactory.constructType(actualType).getRawClass();
     }
 
+    /**
+     * 消息预过滤，在消息投递到回调线程池之前调用
+     * <p>
+     * 仅当主题匹配的处理器全部配置了内容过滤且均不满足时返回 false；没有处理器匹配的主题交由回调自行处理
+     * <p>
+     * 通过预过滤的消息在 {@link #processMessage(String, byte[])} 中会按处理器再次求值过滤条件，之后再反序列化，
+     * 即同一条消息会被解析两次。过滤条件使用流式解析，定位到字段即停止，不构建树也不保留中间结果；
+     * 同一主题上多个处理器时，只要其中一个满足就会投递，其余不满足的处理器仍需单独判断。
+     * @param topic 主题
+     * @param payload 消息内容
+     * @return 是否需要继续投递
+     */
+    public boolean accept(String topic, byte[] payload) {
+        RoutingTable table = routes;
+        if (!table.hasPayloadFilters) {
+            return true;
+        }
+        int result = filter(table.exact.get(topic), payload);
+        if (result != TopicTrie.ACCEPTED) {
+            result = Math.max(result, table.wildcard.filter(topic, payload));
+        }
+        return result != TopicTrie.FILTERED;
+    }
+
+    /**
+     * @return {@link TopicTrie#ACCEPTED} 任一处理器满足过滤条件，{@link TopicTrie#FILTERED} 有处理器但都不满足，
+     * {@link TopicTrie#NO_MATCH} 没有处理器
+     */
+    private static int filter(HandlerWrapper<?>[] wrappers, byte[] payload) {
+        if (wrappers == null) {
+            return TopicTrie.NO_MATCH;
+        }
+        int result = TopicTrie.NO_MATCH;
+        for (HandlerWrapper<?> wrapper : wrappers) {
+            if (wrapper.filter == null || wrapper.filter.matches(payload)) {
+                return TopicTrie.ACCEPTED;
+            }
+            result = TopicTrie.FILTERED;
+        }
+        return result;
+    }
+
     public void processMessage(String topic, byte[] payload) {
-        handlerMap.entrySet().stream()
-                .filter(entry -> entry.getKey().matcher(topic).matches())
-                .forEach(entry -> {
-                    HandlerWrapper<?> wrapper = entry.getValue();
-                    try {
-                        Object message = objectMapper.readValue(payload, wrapper.payloadType);
-                        handleMessageSafely(wrapper, message,topic);
-                    } catch (IOException e) {
-                        if(logger.isDebugEnabled()){
-                            logger.debug("反序列化失败 [主题: {}]", topic, e);
-                        }
-                    }
-                });
+        RoutingTable table = routes;
+        HandlerWrapper<?>[] exact = table.exact.get(topic);
+        if (exact != null) {
+            for (HandlerWrapper<?> wrapper : exact) {
+                dispatch(wrapper, topic, payload);
+            }
+        }
+        table.wildcard.dispatch(this, topic, payload);
+    }
+
+    private void dispatch(HandlerWrapper<?> wrapper, String topic, byte[] payload) {
+        if (wrapper.filter != null && !wrapper.filter.matches(payload)) {
+            return;
+        }
+        if (wrapper.aggregator != null) {
+            wrapper.aggregator.accumulate(topic, payload);
+        } else if (wrapper.assembler != null) {
+            wrapper.assembler.accept(topic, payload);
+        } else {
+            submit(wrapper, topic, payload, null);
+        }
+    }
+
+    /**
+     * 配置了专用线程池的处理器转交给该线程池，其余在当前线程执行
+     * @param payload 原始消息内容，message 为空时反序列化
+     * @param message 已构造好的消息（如聚合结果），不为空时直接投递
+     */
+    private void submit(HandlerWrapper<?> wrapper, String topic, byte[] payload, Object message) {
+        if (wrapper.executor == null) {
+            invokeIsolated(wrapper, topic, payload, message);
+            return;
+        }
+        // 排队时间从公共回调线程池入队开始累计到专用线程池开始执行
+        long handedOffAt = MqttFlightRecorder.handOff();
+        try {
+            wrapper.executor.execute(() -> {
+                MqttFlightRecorder.resumeQueueWait(handedOffAt);
+                invokeIsolated(wrapper, topic, payload, message);
+            });
+        } catch (RejectedExecutionException e) {
+            shed(wrapper, topic, message, "线程池已满");
+        }
+    }
+
+    /**
+     * 在定时线程中产生的消息（如聚合结果）转交给专用线程池或公共回调线程池，不在当前线程执行处理器
+     */
+    private void submitAsync(HandlerWrapper<?> wrapper, String topic, Object message) {
+        Executor executor = wrapper.executor != null ? wrapper.executor : callbackExecutor;
+        if (executor == null) {
+            invokeIsolated(wrapper, topic, null, message);
+            return;
+        }
+        try {
+            executor.execute(() -> invokeIsolated(wrapper, topic, null, message));
+        } catch (RejectedExecutionException e) {
+            shed(wrapper, topic, message, "线程池已满");
+        }
+    }
+
+    private void invokeIsolated(HandlerWrapper<?> wrapper, String topic, byte[] payload, Object message) {
+        if (wrapper.permits != null && !acquirePermit(wrapper)) {
+            park(wrapper, topic, payload, message, "并发已达上限");
+            return;
+        }
+        try {
+            if (wrapper.circuitBreaker == null) {
+                invoke(wrapper, topic, payload, message);
+                return;
+            }
+            if (!wrapper.circuitBreaker.tryAcquire()) {
+                park(wrapper, topic, payload, message, "熔断器已打开");
+                return;
+            }
+            long start = System.nanoTime();
+            boolean succeeded = false;
+            try {
+                succeeded = invoke(wrapper, topic, payload, message);
+            } finally {
+                // 处理器抛出 Error 时同样计为失败，否则半开状态的试探许可不会归还
+                wrapper.circuitBreaker.onResult(System.nanoTime() - start, !succeeded);
+            }
+        } finally {
+            if (wrapper.permits != null) {
+                wrapper.permits.release();
+            }
+        }
+        if (wrapper.parked != null && !wrapper.parked.isEmpty()
+                && wrapper.circuitBreaker.getState() == MqttCircuitBreaker.State.CLOSED) {
+            drainParked(wrapper);
+        }
+    }
+
+    /**
+     * 反序列化并执行处理器
+     * @return 处理器是否正常结束，反序列化失败不计为处理器失败
+     */
+    private boolean invoke(HandlerWrapper<?> wrapper, String topic, byte[] payload, Object message) {
+        Object jfrEvent = MqttFlightRecorder.beginHandlerInvoked();
+        try {
+            handleMessageSafely(wrapper, message != null ? message : objectMapper.readValue(payload, wrapper.payloadType), topic);
+            return true;
+        } catch (IOException e) {
+            if(logger.isDebugEnabled()){
+                logger.debug("反序列化失败 [主题: {}]", topic, e);
+            }
+            return true;
+        } catch (RuntimeException e) {
+            logger.error("处理器执行异常 [主题: {}] {}", topic, wrapper.handler.getClass().getName(), e);
+            return false;
+        } finally {
+            MqttFlightRecorder.endHandlerInvoked(jfrEvent, wrapper.originalTopic, topic,
+                    wrapper.handler.getClass(), payload != null ? payload.length : 0);
+            if (message instanceof MqttTransfer) {
+                ((MqttTransfer) message).discard();
+            }
+        }
+    }
+
+    /**
+     * 并发已达上限时等待空闲，最长等待 {@link MqttTopic#maxConcurrencyWait()}
+     */
+    private boolean acquirePermit(HandlerWrapper<?> wrapper) {
+        if (wrapper.permits.tryAcquire()) {
+            return true;
+        }
+        if (wrapper.permitWaitMillis <= 0) {
+            return false;
+        }
+        try {
+            return wrapper.permits.tryAcquire(wrapper.permitWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 暂存消息等待重新投递，没有暂存队列或队列已满时丢弃
+     */
+    private void park(HandlerWrapper<?> wrapper, String topic, byte[] payload, Object message, String reason) {
+        if (wrapper.parked == null || !wrapper.parked.offer(() -> submit(wrapper, topic, payload, message))) {
+            shed(wrapper, topic, message, reason);
+            return;
+        }
+        scheduleDrain(wrapper);
+    }
+
+    /**
+     * 打开时长结束后重新投递暂存的消息，不依赖后续新消息触发
+     * <p>
+     * 定时线程只负责到期后把排空转交给专用线程池或公共回调线程池，不在 mqtt-registry-timer 中执行处理器
+     */
+    private void scheduleDrain(HandlerWrapper<?> wrapper) {
+        if (wrapper.drainScheduled.compareAndSet(false, true)) {
+            scheduler().schedule(() -> {
+                wrapper.drainScheduled.set(false);
+                Executor executor = wrapper.executor != null ? wrapper.executor : callbackExecutor;
+                if (executor == null) {
+                    drainParked(wrapper);
+                    return;
+                }
+                try {
+                    executor.execute(() -> drainParked(wrapper));
+                } catch (RejectedExecutionException e) {
+                    // 线程池已满，稍后重试
+                    scheduleDrain(wrapper);
+                }
+            }, properties.getCircuitBreaker().getOpenDuration(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 重新投递暂存的消息，只处理当前已有的消息
+     * <p>
+     * 熔断器打开时长已过时第一条消息即为试探调用；仍处于打开状态（试探失败或未到时间）时停止，剩余消息等待下次调度。
+     * 重新投递的消息经由 {@link #submit} 执行，其中触发的排空直接返回，不会递归；
+     * 同一时刻只有一个线程在排空，暂存的消息晚于恢复期间新到达的消息执行。
+     * 由定时调度触发时在专用线程池或公共回调线程池中执行。
+     */
+    private void drainParked(HandlerWrapper<?> wrapper) {
+        if (!wrapper.draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int count = wrapper.parked.size();
+            Runnable task;
+            while (count-- > 0 && (task = wrapper.parked.poll()) != null) {
+                task.run();
+                if (wrapper.circuitBreaker.getState() == MqttCircuitBreaker.State.OPEN) {
+                    break;
+                }
+            }
+        } finally {
+            wrapper.draining.set(false);
+        }
+        if (!wrapper.parked.isEmpty()) {
+            scheduleDrain(wrapper);
+        }
+    }
+
+    private void shed(HandlerWrapper<?> wrapper, String topic, Object message, String reason) {
+        if (message instanceof MqttTransfer) {
+            ((MqttTransfer) message).discard();
+        }
+        long shed = wrapper.shedCount.incrementAndGet();
+        if (shed == 1 || shed % 1000 == 0) {
+            logger.warn("处理器 {} {}，已丢弃 {} 条消息", wrapper.handler.getClass().getSimpleName(), reason, shed);
+        } else if (logger.isDebugEnabled()) {
+            logger.debug("处理器 {} {}，丢弃消息 [主题: {}]", wrapper.handler.getClass().getSimpleName(), reason, topic);
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -101,22 +630,231 @@ public class MqttHandlerRegistry {
         final MqttMessageHandler<T> handler;
         final Class<?> payloadType; // 修改为 Class<?>
         final String originalTopic;
+        // 含 + 或 # 的主题由路由树匹配，其余按字符串直接查找
+        final boolean wildcard;
         final int qos;
+        final MqttPayloadFilter filter;
+        // 隔离配置，注册时设置
+        Executor executor;
+        Semaphore permits;
+        // 并发已达上限时等待空闲的最长时间（毫秒）
+        long permitWaitMillis;
+        MqttCircuitBreaker circuitBreaker;
+        BlockingQueue<Runnable> parked;
+        // 正在排空暂存消息，避免重新投递时递归排空
+        final AtomicBoolean draining = new AtomicBoolean();
+        // 已安排定时排空
+        final AtomicBoolean drainScheduled = new AtomicBoolean();
+        MqttWindowAggregator aggregator;
+        MqttChunkAssembler assembler;
+        final List<ScheduledFuture<?>> tasks = new ArrayList<>();
+        final AtomicLong shedCount = new AtomicLong();
 
         HandlerWrapper(MqttMessageHandler<T> handler,
                        Class<?> payloadType, // 修改为 Class<?>
                        String originalTopic,
-                       int qos) {
+                       int qos,
+                       MqttPayloadFilter filter) {
             this.handler = handler;
             this.payloadType = payloadType;
             this.originalTopic = originalTopic;
+            this.wildcard = originalTopic.contains("+") || originalTopic.contains("#");
             this.qos = qos;
+            this.filter = filter;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
         }
+        for (HandlerWrapper<?> wrapper : routes.all) {
+            if (wrapper.assembler != null) {
+                wrapper.assembler.close();
+            }
+        }
+    }
+
+    /**
+     * 不可变路由快照: 不含通配符的主题按字符串直接查找，通配符主题按层级在 {@link TopicTrie} 中匹配
+     */
+    private static final class RoutingTable {
+        static final RoutingTable EMPTY = new RoutingTable(Collections.emptyList());
+
+        // 注册顺序
+        final List<HandlerWrapper<?>> all;
+        final Map<String, HandlerWrapper<?>[]> exact;
+        final TopicTrie wildcard;
+        // 是否存在带内容过滤的处理器，没有时跳过预过滤
+        final boolean hasPayloadFilters;
+
+        RoutingTable(List<HandlerWrapper<?>> all) {
+            this.all = Collections.unmodifiableList(all);
+            Map<String, List<HandlerWrapper<?>>> grouped = new HashMap<>();
+            TopicTrie wildcards = new TopicTrie();
+            boolean filters = false;
+            for (HandlerWrapper<?> wrapper : all) {
+                if (wrapper.wildcard) {
+                    wildcards.add(wrapper.originalTopic, wrapper);
+                } else {
+                    grouped.computeIfAbsent(wrapper.originalTopic, topic -> new ArrayList<>()).add(wrapper);
+                }
+                filters |= wrapper.filter != null;
+            }
+            Map<String, HandlerWrapper<?>[]> exactRoutes = new HashMap<>();
+            grouped.forEach((topic, wrappers) -> exactRoutes.put(topic, wrappers.toArray(new HandlerWrapper<?>[0])));
+            this.exact = exactRoutes;
+            this.wildcard = wildcards;
+            this.hasPayloadFilters = filters;
+        }
+
+        RoutingTable with(List<HandlerWrapper<?>> added) {
+            if (added.isEmpty()) {
+                return this;
+            }
+            List<HandlerWrapper<?>> next = new ArrayList<>(all);
+            next.addAll(added);
+            return new RoutingTable(next);
+        }
+
+        RoutingTable without(Predicate<HandlerWrapper<?>> removed) {
+            List<HandlerWrapper<?>> next = new ArrayList<>(all.size());
+            for (HandlerWrapper<?> wrapper : all) {
+                if (!removed.test(wrapper)) {
+                    next.add(wrapper);
+                }
+            }
+            return next.size() == all.size() ? this : new RoutingTable(next);
+        }
+
+        /**
+         * 是否有处理器注册在该主题上
+         */
+        boolean hasTopic(String topic) {
+            for (HandlerWrapper<?> wrapper : all) {
+                if (wrapper.originalTopic.equals(topic)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 通配符主题的层级路由树，构建完成后只读
+     * <p>
+     * 按 MQTT 规则匹配: {@code +} 匹配任意单个层级（包括空层级），{@code #} 匹配其父层级及以下所有层级，
+     * 以 {@code $} 开头的主题不被首层通配符匹配。匹配耗时与主题层级数相关，与通配符处理器数量无关。
+     */
+    private static final class TopicTrie {
+        private static final HandlerWrapper<?>[] NONE = new HandlerWrapper<?>[0];
+        // 内容过滤结果，按优先级递增，合并时取最大值
+        static final int NO_MATCH = 0;
+        static final int FILTERED = 1;
+        static final int ACCEPTED = 2;
+
+        private final Map<String, TopicTrie> children = new HashMap<>();
+        // + 层级
+        private TopicTrie single;
+        // 以 # 结尾、父层级为当前节点的处理器
+        private HandlerWrapper<?>[] multi = NONE;
+        // 主题在当前节点结束的处理器
+        private HandlerWrapper<?>[] handlers = NONE;
+
+        void add(String filter, HandlerWrapper<?> wrapper) {
+            TopicTrie node = this;
+            for (String level : filter.split("/", -1)) {
+                if ("#".equals(level)) {
+                    node.multi = append(node.multi, wrapper);
+                    return;
+                }
+                if ("+".equals(level)) {
+                    if (node.single == null) {
+                        node.single = new TopicTrie();
+                    }
+                    node = node.single;
+                } else {
+                    node = node.children.computeIfAbsent(level, key -> new TopicTrie());
+                }
+            }
+            node.handlers = append(node.handlers, wrapper);
+        }
+
+        private static HandlerWrapper<?>[] append(HandlerWrapper<?>[] wrappers, HandlerWrapper<?> wrapper) {
+            HandlerWrapper<?>[] next = Arrays.copyOf(wrappers, wrappers.length + 1);
+            next[wrappers.length] = wrapper;
+            return next;
+        }
+
+        /**
+         * 对匹配主题的处理器执行内容过滤，在 MQTT 接收线程中调用，不创建匿名对象
+         * @return {@link #ACCEPTED}、{@link #FILTERED} 或 {@link #NO_MATCH}
+         */
+        int filter(String topic, byte[] payload) {
+            return walk(topic, 0, !topic.startsWith("$"), payload, null);
+        }
+
+        /**
+         * 将消息分发给匹配主题的处理器
+         */
+        void dispatch(MqttHandlerRegistry registry, String topic, byte[] payload) {
+            walk(topic, 0, !topic.startsWith("$"), payload, registry);
+        }
+
+        /**
+         * @param start 当前层级在主题中的起始位置，大于主题长度表示所有层级已匹配
+         * @param wildcards 当前层级是否允许通配符匹配
+         * @param registry 不为空时分发消息，为空时执行内容过滤
+         * @return 过滤结果，分发时为 {@link #NO_MATCH}
+         */
+        private int walk(String topic, int start, boolean wildcards, byte[] payload, MqttHandlerRegistry registry) {
+            int result = wildcards ? visit(multi, topic, payload, registry) : NO_MATCH;
+            if (result == ACCEPTED) {
+                return result;
+            }
+            if (start > topic.length()) {
+                return Math.max(result, visit(handlers, topic, payload, registry));
+            }
+            int end = topic.indexOf('/', start);
+            if (end < 0) {
+                end = topic.length();
+            }
+            if (!children.isEmpty()) {
+                TopicTrie child = children.get(topic.substring(start, end));
+                if (child != null) {
+                    result = Math.max(result, child.walk(topic, end + 1, true, payload, registry));
+                    if (result == ACCEPTED) {
+                        return result;
+                    }
+                }
+            }
+            if (wildcards && single != null) {
+                result = Math.max(result, single.walk(topic, end + 1, true, payload, registry));
+            }
+            return result;
+        }
+
+        private static int visit(HandlerWrapper<?>[] wrappers, String topic, byte[] payload, MqttHandlerRegistry registry) {
+            if (registry == null) {
+                return MqttHandlerRegistry.filter(wrappers, payload);
+            }
+            for (HandlerWrapper<?> wrapper : wrappers) {
+                registry.dispatch(wrapper, topic, payload);
+            }
+            return NO_MATCH;
+        }
+    }
+
+    @MqttTopic("")
+    private static final class DefaultOptions {
     }
 
     // 获取所有需要订阅的主题
     public List<String> getSubscribedTopics() {
-        return handlerMap.values().stream()
+        return routes.all.stream()
                 .map(wrapper -> wrapper.originalTopic)
                 .distinct()
                 .collect(Collectors.toList());
@@ -0,0 +1,30 @@
+package com.gong.iot;
+
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+
+/**
+ * MQTT 健康检查，客户端完成首次连接和订阅且当前处于连接状态时为 UP
+ */
+public class MqttHealthIndicator extends AbstractHealthIndicator {
+    private final MqttClientWrapper wrapper;
+
+    public MqttHealthIndicator(MqttClientWrapper wrapper) {
+        this.wrapper = wrapper;
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        boolean ready = wrapper.isReady();
+        boolean connected = wrapper.getClient().isConnected();
+        if (ready && connected) {
+            builder.up();
+        } else {
+            builder.down();
+        }
+        builder.withDetail("clientId", wrapper.getClient().getClientId())
+                .withDetail("ready", ready)
+                .withDetail("connected", connected)
+                .withDetail("subscriptions", wrapper.getCallback().getSubscribedTopics().size());
+    }
+}
@@ -0,0 +1,266 @@
+package com.gong.iot;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * MQTT JFR 事件定义
+ * <p>
+ * 只能通过 {@link MqttFlightRecorder} 访问，运行环境不支持 JFR 时本类不会被加载。
+ * 默认阈值可通过 JFR 配置覆盖，例如 {@code com.gong.iot.MqttHandlerInvoked#threshold=5 ms}。
+ * <p>
+ * 没有正在进行的录制时 begin 方法不创建事件、直接返回 null，录制状态由监听器缓存，消息路径上只读取一个 volatile 字段。
+ */
+final class MqttJfrEvents {
+    // 是否存在运行中的录制
+    private static volatile boolean recording;
+
+    static {
+        try {
+            FlightRecorder.addListener(new FlightRecorderListener() {
+                @Override
+                public void recorderInitialized(FlightRecorder recorder) {
+                    updateRecording(recorder);
+                }
+
+                @Override
+                public void recordingStateChanged(Recording changed) {
+                    updateRecording(FlightRecorder.getFlightRecorder());
+                }
+            });
+        } catch (RuntimeException e) {
+            // 无法监听录制状态时退化为按事件的 isEnabled 判断
+            recording = true;
+        }
+    }
+
+    private MqttJfrEvents() {
+    }
+
+    private static void updateRecording(FlightRecorder recorder) {
+        boolean running = false;
+        for (Recording r : recorder.getRecordings()) {
+            if (r.getState() == RecordingState.RUNNING) {
+                running = true;
+                break;
+            }
+        }
+        recording = running;
+    }
+
+    static boolean isRecording() {
+        return recording;
+    }
+
+    @Name("com.gong.iot.MqttMessageReceived")
+    @Label("MQTT Message Received")
+    @Description("接收线程中的消息处理（解压、拦截、过滤、入队）")
+    @Category({"MQTT"})
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class Received extends Event {
+        @Label("Topic")
+        String topic;
+        @Label("Payload Size")
+        @DataAmount(DataAmount.BYTES)
+        int payloadSize;
+        @Label("QoS")
+        int qos;
+    }
+
+    @Name("com.gong.iot.MqttDispatchQueued")
+    @Label("MQTT Dispatch Queued")
+    @Description("消息在回调线程池中排队等待的时间")
+    @Category({"MQTT"})
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static class DispatchQueued extends Event {
+        @Label("Topic")
+        String topic;
+        @Label("Queue Size")
+        int queueSize;
+    }
+
+    @Name("com.gong.iot.MqttHandlerInvoked")
+    @Label("MQTT Handler Invoked")
+    @Description("消息反序列化及处理器执行")
+    @Category({"MQTT"})
+    @Threshold("20 ms")
+    @StackTrace(false)
+    static class HandlerInvoked extends Event {
+        @Label("Topic Filter")
+        String topicFilter;
+        @Label("Topic")
+        String topic;
+        @Label("Handler")
+        Class<?> handler;
+        @Label("Payload Size")
+        @DataAmount(DataAmount.BYTES)
+        int payloadSize;
+        @Label("Queue Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        long queueWait;
+    }
+
+    @Name("com.gong.iot.MqttPublish")
+    @Label("MQTT Publish")
+    @Category({"MQTT"})
+    @Threshold("20 ms")
+    @StackTrace(false)
+    static class Publish extends Event {
+        @Label("Topic")
+        String topic;
+        @Label("Payload Size")
+        @DataAmount(DataAmount.BYTES)
+        int payloadSize;
+        @Label("QoS")
+        int qos;
+        @Label("Retained")
+        boolean retained;
+    }
+
+    @Name("com.gong.iot.MqttReconnect")
+    @Label("MQTT Reconnect")
+    @Category({"MQTT"})
+    @Threshold("0 ms")
+    @StackTrace(false)
+    static class Reconnect extends Event {
+        @Label("Server URI")
+        String serverUri;
+        @Label("Attempt")
+        int attempt;
+        @Label("Success")
+        boolean success;
+    }
+
+    // begin 方法只返回 Object，避免调用方字节码引用 jdk.jfr 类型
+
+    static Object beginReceived() {
+        if (!recording) {
+            return null;
+        }
+        Received event = new Received();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static Object beginDispatchQueued() {
+        if (!recording) {
+            return null;
+        }
+        DispatchQueued event = new DispatchQueued();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static Object beginHandlerInvoked() {
+        if (!recording) {
+            return null;
+        }
+        HandlerInvoked event = new HandlerInvoked();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static Object beginPublish() {
+        if (!recording) {
+            return null;
+        }
+        Publish event = new Publish();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static Object beginReconnect() {
+        if (!recording) {
+            return null;
+        }
+        Reconnect event = new Reconnect();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void endReceived(Object token, String topic, int payloadSize, int qos) {
+        Received event = (Received) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.topic = topic;
+            event.payloadSize = payloadSize;
+            event.qos = qos;
+            event.commit();
+        }
+    }
+
+    static void endDispatchQueued(Object token, String topic, int queueSize) {
+        DispatchQueued event = (DispatchQueued) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.topic = topic;
+            event.queueSize = queueSize;
+            event.commit();
+        }
+    }
+
+    static void endHandlerInvoked(Object token, String topicFilter, String topic, Class<?> handler,
+                                  int payloadSize, long queueWait) {
+        HandlerInvoked event = (HandlerInvoked) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.topicFilter = topicFilter;
+            event.topic = topic;
+            event.handler = handler;
+            event.payloadSize = payloadSize;
+            event.queueWait = queueWait;
+            event.commit();
+        }
+    }
+
+    static void endPublish(Object token, String topic, int payloadSize, int qos, boolean retained) {
+        Publish event = (Publish) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.topic = topic;
+            event.payloadSize = payloadSize;
+            event.qos = qos;
+            event.retained = retained;
+            event.commit();
+        }
+    }
+
+    static void endReconnect(Object token, String serverUri, int attempt, boolean success) {
+        Reconnect event = (Reconnect) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.serverUri = serverUri;
+            event.attempt = attempt;
+            event.success = success;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package com.gong.iot;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.ClassUtils;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * MQTT 消息压缩/解压
+ * <p>
+ * 发布时按主题规则选择压缩算法；接收时只对规则覆盖的主题根据消息头识别并解压，其他主题的消息原样投递，
+ * 避免二进制消息恰好以魔数开头时被误解压。压缩后的消息格式:
+ * <pre>
+ * | 0xFE | 0x4D | 算法ID(1字节) | 原始长度(4字节, 大端) | 压缩数据 |
+ * </pre>
+ * 0xFE 不是合法的 UTF-8 首字节，不会与 JSON/文本消息冲突。
+ * zstd 依赖 {@code com.github.luben:zstd-jni}，LZ4 依赖 {@code org.lz4:lz4-java}，均为可选依赖，使用时需自行引入。
+ */
+public class MqttPayloadCompressor {
+    private static final Logger logger = LoggerFactory.getLogger(MqttPayloadCompressor.class);
+
+    static final byte MAGIC_0 = (byte) 0xFE;
+    static final byte MAGIC_1 = (byte) 0x4D;
+    static final int HEADER_LENGTH = 7;
+
+    private final Map<Pattern, Codec> topicCodecs;
+    private final Codec[] codecsById = new Codec[Algorithm.values().length + 1];
+    private final int minSize;
+    private final int maxDecompressedSize;
+
+    /**
+     * 压缩算法
+     */
+    public enum Algorithm {
+        /**
+         * zlib 格式的 DEFLATE 压缩（{@link Deflater} 默认格式，非 gzip 文件格式）
+         */
+        DEFLATE(1),
+        LZ4(2),
+        ZSTD(3);
+
+        final byte id;
+
+        Algorithm(int id) {
+            this.id = (byte) id;
+        }
+    }
+
+    /**
+     * @param topicAlgorithms 主题(支持 + 和 # 通配符) 与压缩算法的映射，按顺序匹配
+     * @param config 压缩配置
+     * @param zstdDictionary zstd 字典，可为 null
+     */
+    public MqttPayloadCompressor(Map<String, Algorithm> topicAlgorithms,
+                                 MqttProperties.CompressionConfig config,
+                                 byte[] zstdDictionary) {
+        this.minSize = config.getMinSize();
+        this.maxDecompressedSize = config.getMaxDecompressedSize();
+        int poolSize = config.getPoolSize();
+
+        // 规则覆盖的主题上接收端对所有可用算法都能解压，不要求与发布端选择的算法一致
+        register(new DeflateCodec(config.getDeflateLevel(), poolSize));
+        if (ClassUtils.isPresent("net.jpountz.lz4.LZ4Factory", getClass().getClassLoader())) {
+            register(new Lz4Codec());
+        }
+        if (ClassUtils.isPresent("com.github.luben.zstd.ZstdCompressCtx", getClass().getClassLoader())) {
+            register(new ZstdCodec(config.getZstdLevel(), zstdDictionary, poolSize));
+        }
+
+        Map<Pattern, Codec> codecs = new LinkedHashMap<>();
+        topicAlgorithms.forEach((topic, algorithm) -> {
+            Codec codec = codecsById[algorithm.id];
+            if (codec == null) {
+                throw new IllegalStateException("压缩算法 " + algorithm + " 所需的依赖不存在，主题: " + topic);
+            }
+            String patternStr = topic
+                    .replace("+", "[^/]+")
+                    .replace("#", ".*");
+            codecs.put(Pattern.compile(patternStr), codec);
+            logger.info("注册消息压缩 [主题: {}] => {}", topic, algorithm);
+        });
+        this.topicCodecs = codecs;
+    }
+
+    private void register(Codec codec) {
+        codecsById[codec.algorithm().id] = codec;
+    }
+
+    /**
+     * 按主题规则压缩消息，未匹配规则、消息过小或压缩后未变小时原样返回
+     * @param topic 主题
+     * @param payload 原始消息
+     * @return 待发送的消息
+     */
+    public byte[] compress(String topic, byte[] payload) {
+        if (payload.length < minSize || topicCodecs.isEmpty()) {
+            return payload;
+        }
+        for (Map.Entry<Pattern, Codec> entry : topicCodecs.entrySet()) {
+            if (entry.getKey().matcher(topic).matches()) {
+                byte[] compressed = entry.getValue().compress(payload);
+                return compressed.length < payload.length ? compressed : payload;
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * 判断主题是否被压缩规则覆盖，只有这些主题上的消息会在接收时识别压缩头
+     */
+    public boolean covers(String topic) {
+        for (Pattern pattern : topicCodecs.keySet()) {
+            if (pattern.matcher(topic).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 判断消息是否带有压缩头
+     */
+    public static boolean isCompressed(byte[] payload) {
+        return payload.length >= HEADER_LENGTH && payload[0] == MAGIC_0 && payload[1] == MAGIC_1;
+    }
+
+    /**
+     * 根据消息头自动识别并解压，未压缩的消息原样返回
+     * @param payload 收到的消息
+     * @return 解压后的消息
+     * @throws IllegalArgumentException 如果算法未知、长度超限或数据损坏
+     */
+    public byte[] decompress(byte[] payload) {
+        if (!isCompressed(payload)) {
+            return payload;
+        }
+        int id = payload[2];
+        Codec codec = id > 0 && id < codecsById.length ? codecsById[id] : null;
+        if (codec == null) {
+            throw new IllegalArgumentException("未知或不可用的压缩算法ID: " + id);
+        }
+        int originalLength = ((payload[3] & 0xFF) << 24) | ((payload[4] & 0xFF) << 16)
+                | ((payload[5] & 0xFF) << 8) | (payload[6] & 0xFF);
+        if (originalLength < 0 || originalLength > maxDecompressedSize) {
+            throw new IllegalArgumentException("解压后长度超出限制: " + originalLength);
+        }
+        return codec.decompress(payload, HEADER_LENGTH, payload.length - HEADER_LENGTH, originalLength);
+    }
+
+    private static byte[] newBuffer(Algorithm algorithm, int originalLength, int bound) {
+        byte[] buffer = new byte[HEADER_LENGTH + bound];
+        buffer[0] = MAGIC_0;
+        buffer[1] = MAGIC_1;
+        buffer[2] = algorithm.id;
+        buffer[3] = (byte) (originalLength >>> 24);
+        buffer[4] = (byte) (originalLength >>> 16);
+        buffer[5] = (byte) (originalLength >>> 8);
+        buffer[6] = (byte) originalLength;
+        return buffer;
+    }
+
+    private interface Codec {
+        Algorithm algorithm();
+
+        byte[] compress(byte[] src);
+
+        byte[] decompress(byte[] src, int offset, int length, int originalLength);
+    }
+
+    /**
+     * 有界对象池，复用压缩上下文，避免每条消息都分配本地内存
+     */
+    private static class ContextPool<T> {
+        private final Queue<T> idle = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger idleCount = new AtomicInteger();
+        private final Supplier<T> factory;
+        private final Consumer<T> destroyer;
+        private final int maxIdle;
+
+        ContextPool(Supplier<T> factory, Consumer<T> destroyer, int maxIdle) {
+            this.factory = factory;
+            this.destroyer = destroyer;
+            this.maxIdle = maxIdle;
+        }
+
+        T borrow() {
+            T ctx = idle.poll();
+            if (ctx == null) {
+                return factory.get();
+            }
+            idleCount.decrementAndGet();
+            return ctx;
+        }
+
+        void release(T ctx) {
+            if (idleCount.incrementAndGet() <= maxIdle) {
+                idle.offer(ctx);
+            } else {
+                idleCount.decrementAndGet();
+                destroyer.accept(ctx);
+            }
+        }
+    }
+
+    private static class DeflateCodec implements Codec {
+        private final ContextPool<Deflater> deflaters;
+        private final ContextPool<Inflater> inflaters;
+
+        DeflateCodec(int level, int poolSize) {
+            this.deflaters = new ContextPool<>(() -> new Deflater(level), Deflater::end, poolSize);
+            this.inflaters = new ContextPool<>(Inflater::new, Inflater::end, poolSize);
+        }
+
+        @Override
+        public Algorithm algorithm() {
+            return Algorithm.DEFLATE;
+        }
+
+        @Override
+        public byte[] compress(byte[] src) {
+            Deflater deflater = deflaters.borrow();
+            try {
+                deflater.setInput(src);
+                deflater.finish();
+                int bound = src.length + (src.length >> 12) + (src.length >> 14) + 64;
+                byte[] buffer = newBuffer(Algorithm.DEFLATE, src.length, bound);
+                int size = HEADER_LENGTH;
+                while (!deflater.finished()) {
+                    if (size == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                    size += deflater.deflate(buffer, size, buffer.length - size);
+                }
+                return Arrays.copyOf(buffer, size);
+            } finally {
+                deflater.reset();
+                deflaters.release(deflater);
+            }
+        }
+
+        @Override
+        public byte[] decompress(byte[] src, int offset, int length, int originalLength) {
+            Inflater inflater = inflaters.borrow();
+            try {
+                inflater.setInput(src, offset, length);
+                byte[] out = new byte[originalLength];
+                int size = 0;
+                while (size < originalLength && !inflater.finished()) {
+                    int n = inflater.inflate(out, size, originalLength - size);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    size += n;
+                }
+                if (size != originalLength) {
+                    throw new IllegalArgumentException("deflate 解压长度不一致: " + size + " != " + originalLength);
+                }
+                return out;
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException("deflate 数据损坏", e);
+            } finally {
+                inflater.reset();
+                inflaters.release(inflater);
+            }
+        }
+    }
+
+    private static class Lz4Codec implements Codec {
+        // LZ4 压缩/解压器无状态且线程安全，无需池化
+        private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+        private final LZ4SafeDecompressor decompressor = LZ4Factory.fastestInstance().safeDecompressor();
+
+        @Override
+        public Algorithm algorithm() {
+            return Algorithm.LZ4;
+        }
+
+        @Override
+        public byte[] compress(byte[] src) {
+            byte[] buffer = newBuffer(Algorithm.LZ4, src.length, compressor.maxCompressedLength(src.length));
+            int size = compressor.compress(src, 0, src.length, buffer, HEADER_LENGTH, buffer.length - HEADER_LENGTH);
+            return Arrays.copyOf(buffer, HEADER_LENGTH + size);
+        }
+
+        @Override
+        public byte[] decompress(byte[] src, int offset, int length, int originalLength) {
+            byte[] out = new byte[originalLength];
+            int size = decompressor.decompress(src, offset, length, out, 0, originalLength);
+            if (size != originalLength) {
+                throw new IllegalArgumentException("lz4 解压长度不一致: " + size + " != " + originalLength);
+            }
+            return out;
+        }
+    }
+
+    private static class ZstdCodec implements Codec {
+        private final ContextPool<ZstdCompressCtx> compressContexts;
+        private final ContextPool<ZstdDecompressCtx> decompressContexts;
+
+        ZstdCodec(int level, byte[] dictionary, int poolSize) {
+            // 字典在创建上下文时加载一次，之后随上下文复用
+            this.compressContexts = new ContextPool<>(() -> {
+                ZstdCompressCtx ctx = new ZstdCompressCtx().setLevel(level);
+                return dictionary != null ? ctx.loadDict(dictionary) : ctx;
+            }, ZstdCompressCtx::close, poolSize);
+            this.decompressContexts = new ContextPool<>(() -> {
+                ZstdDecompressCtx ctx = new ZstdDecompressCtx();
+                return dictionary != null ? ctx.loadDict(dictionary) : ctx;
+            }, ZstdDecompressCtx::close, poolSize);
+        }
+
+        @Override
+        public Algorithm algorithm() {
+            return Algorithm.ZSTD;
+        }
+
+        @Override
+        public byte[] compress(byte[] src) {
+            ZstdCompressCtx ctx = compressContexts.borrow();
+            try {
+                byte[] buffer = newBuffer(Algorithm.ZSTD, src.length, (int) Zstd.compressBound(src.length));
+                int size = ctx.compressByteArray(buffer, HEADER_LENGTH, buffer.length - HEADER_LENGTH, src, 0, src.length);
+                return Arrays.copyOf(buffer, HEADER_LENGTH + size);
+            } finally {
+                compressContexts.release(ctx);
+            }
+        }
+
+        @Override
+        public byte[] decompress(byte[] src, int offset, int length, int originalLength) {
+            ZstdDecompressCtx ctx = decompressContexts.borrow();
+            try {
+                byte[] out = new byte[originalLength];
+                int size = ctx.decompressByteArray(out, 0, originalLength, src, offset, length);
+                if (size != originalLength) {
+                    throw new IllegalArgumentException("zstd 解压长度不一致: " + size + " != " + originalLength);
+                }
+                return out;
+            } finally {
+                decompressContexts.release(ctx);
+            }
+        }
+    }
+
+    /**
+     * 将配置中的规则列表转换为有序映射
+     */
+    static Map<String, Algorithm> toTopicAlgorithms(List<MqttProperties.CompressionRule> rules) {
+        Map<String, Algorithm> result = new LinkedHashMap<>();
+        for (MqttProperties.CompressionRule rule : rules) {
+            result.put(rule.getTopic(), rule.getAlgorithm());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,175 @@
+package com.gong.iot;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * 消息内容过滤器
+ * <p>
+ * 表达式格式: {@code <JSON Pointer> <==|!=> <JSON 字面量>}，例如 {@code /type == "alarm"}、{@code /data/level != 0}。
+ * 表达式在处理器注册时编译一次，匹配时使用流式 {@link JsonParser} 逐层定位字段，找到目标字段后立即停止解析，
+ * 不会对整条消息进行反序列化。
+ */
+public final class MqttPayloadFilter {
+    private static final Logger logger = LoggerFactory.getLogger(MqttPayloadFilter.class);
+
+    private final String expression;
+    private final JsonPointer pointer;
+    private final boolean negate;
+    private final JsonToken expectedToken;
+    private final String expectedText;
+    private final BigDecimal expectedNumber;
+    private final JsonNode expectedNode;
+    private final JsonFactory jsonFactory;
+
+    private MqttPayloadFilter(String expression, JsonPointer pointer, boolean negate,
+                              JsonNode expected, JsonFactory jsonFactory) {
+        this.expression = expression;
+        this.pointer = pointer;
+        this.negate = negate;
+        this.expectedToken = expected.asToken();
+        this.expectedText = expected.isTextual() ? expected.textValue() : null;
+        this.expectedNumber = expected.isNumber() ? expected.decimalValue() : null;
+        this.expectedNode = expected;
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * 编译过滤表达式
+     * @param expression 过滤表达式
+     * @param objectMapper 用于解析字面量和创建流式解析器
+     * @return 编译后的过滤器
+     * @throws IllegalArgumentException 如果表达式格式不正确
+     */
+    public static MqttPayloadFilter compile(String expression, ObjectMapper objectMapper) {
+        String expr = expression.trim();
+        int opIndex = indexOfOperator(expr);
+        if (opIndex <= 0) {
+            throw new IllegalArgumentException("过滤表达式缺少比较运算符 (== 或 !=): " + expression);
+        }
+        String pointerStr = expr.substring(0, opIndex).trim();
+        boolean negate = expr.charAt(opIndex) == '!';
+        String literal = expr.substring(opIndex + 2).trim();
+        if (!pointerStr.startsWith("/")) {
+            throw new IllegalArgumentException("过滤表达式字段必须为 JSON Pointer (以 / 开头): " + expression);
+        }
+        JsonNode expected;
+        try {
+            expected = objectMapper.readTree(literal);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("过滤表达式比较值不是合法的 JSON 字面量: " + expression, e);
+        }
+        if (expected == null || expected.isMissingNode()) {
+            throw new IllegalArgumentException("过滤表达式缺少比较值: " + expression);
+        }
+        return new MqttPayloadFilter(expr, JsonPointer.compile(pointerStr), negate, expected, objectMapper.getFactory());
+    }
+
+    private static int indexOfOperator(String expr) {
+        // 字段在前、字面量在后，取第一个运算符即可，字面量中出现的 == 不受影响
+        for (int i = 0; i < expr.length() - 1; i++) {
+            char c = expr.charAt(i);
+            if ((c == '=' || c == '!') && expr.charAt(i + 1) == '=') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 判断消息内容是否满足过滤条件，非 JSON 消息视为不满足
+     * @param payload 消息内容
+     * @return 是否满足
+     */
+    public boolean matches(byte[] payload) {
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() == null || !locate(parser, pointer)) {
+                // 字段不存在
+                return negate;
+            }
+            return compare(parser) != negate;
+        } catch (IOException e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("过滤表达式解析消息失败 [表达式: {}]: {}", expression, e.getMessage());
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 将解析器定位到 JSON Pointer 指向的值上，跳过无关的子结构
+     */
+    static boolean locate(JsonParser parser, JsonPointer ptr) throws IOException {
+        while (!ptr.matches()) {
+            JsonToken token = parser.currentToken();
+            if (token == JsonToken.START_OBJECT) {
+                String property = ptr.getMatchingProperty();
+                boolean found = false;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.currentName();
+                    parser.nextToken();
+                    if (property.equals(name)) {
+                        found = true;
+                        break;
+                    }
+                    parser.skipChildren();
+                }
+                if (!found) {
+                    return false;
+                }
+            } else if (token == JsonToken.START_ARRAY) {
+                int index = ptr.getMatchingIndex();
+                if (index < 0) {
+                    return false;
+                }
+                int i = 0;
+                JsonToken element;
+                while ((element = parser.nextToken()) != JsonToken.END_ARRAY && element != null) {
+                    if (i++ == index) {
+                        break;
+                    }
+                    parser.skipChildren();
+                }
+                if (element == JsonToken.END_ARRAY || element == null) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+            ptr = ptr.tail();
+        }
+        return true;
+    }
+
+    private boolean compare(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        switch (token) {
+            case VALUE_STRING:
+                return expectedText != null && expectedText.equals(parser.getText());
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return expectedNumber != null && expectedNumber.compareTo(parser.getDecimalValue()) == 0;
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+            case VALUE_NULL:
+                return token == expectedToken;
+            default:
+                // 对象或数组较少使用，退化为树比较
+                return expectedNode.isContainerNode() && expectedNode.equals(parser.readValueAsTree());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
@@ -1,6 +1,7 @@
 package com.gong.iot;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.core.io.Resource;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -8,6 +9,8 @@ import java.util.List;
 @ConfigurationProperties(prefix = "spring.mqtt")
 public class MqttProperties {
     private String broker = "tcp://127.0.0.1:1883";
+    // 多节点地址，配置后忽略 broker
+    private List<String> brokers = new ArrayList<>();
     private String clientId = "default-g-mqtt-client";
     private String username = "root";
     private boolean enabled = true;
@@ -18,6 +21,22 @@ public class MqttProperties {
 
     private ThreadPoolConfig threadPool = new ThreadPoolConfig();
 
+    private CompressionConfig compression = new CompressionConfig();
+
+    private RequestConfig request = new RequestConfig();
+
+    private ShutdownConfig shutdown = new ShutdownConfig();
+
+    private StartupConfig startup = new StartupConfig();
+
+    private FailoverConfig failover = new FailoverConfig();
+
+    private RecorderConfig recorder = new RecorderConfig();
+
+    private CircuitBreakerConfig circuitBreaker = new CircuitBreakerConfig();
+
+    private ChunkedConfig chunked = new ChunkedConfig();
+
     public boolean isEnabled() {
         return enabled;
     }
@@ -113,6 +132,438 @@ public class MqttProperties {
         }
     }
 
+    public static class CompressionConfig {
+        private boolean enabled = false;
+        // 按主题压缩的规则，按顺序匹配；接收端只解压规则覆盖的主题
+        private List<CompressionRule> rules = new ArrayList<>();
+        // 小于该字节数的消息不压缩
+        private int minSize = 512;
+        // 解压后允许的最大字节数，防止恶意构造的压缩消息
+        private int maxDecompressedSize = 16 * 1024 * 1024;
+        // 每种算法缓存的压缩上下文数量
+        private int poolSize = 16;
+        private int deflateLevel = 6;
+        private int zstdLevel = 3;
+        // zstd 字典，如 classpath:mqtt/zstd.dict
+        private Resource zstdDictionary;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public List<CompressionRule> getRules() {
+            return rules;
+        }
+
+        public void setRules(List<CompressionRule> rules) {
+            this.rules = rules;
+        }
+
+        public int getMinSize() {
+            return minSize;
+        }
+
+        public void setMinSize(int minSize) {
+            this.minSize = minSize;
+        }
+
+        public int getMaxDecompressedSize() {
+            return maxDecompressedSize;
+        }
+
+        public void setMaxDecompressedSize(int maxDecompressedSize) {
+            this.maxDecompressedSize = maxDecompressedSize;
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+        }
+
+        public int getDeflateLevel() {
+            return deflateLevel;
+        }
+
+        public void setDeflateLevel(int deflateLevel) {
+            this.deflateLevel = deflateLevel;
+        }
+
+        public int getZstdLevel() {
+            return zstdLevel;
+        }
+
+        public void setZstdLevel(int zstdLevel) {
+            this.zstdLevel = zstdLevel;
+        }
+
+        public Resource getZstdDictionary() {
+            return zstdDictionary;
+        }
+
+        public void setZstdDictionary(Resource zstdDictionary) {
+            this.zstdDictionary = zstdDictionary;
+        }
+    }
+
+    public static class CompressionRule {
+        private String topic;
+        private MqttPayloadCompressor.Algorithm algorithm = MqttPayloadCompressor.Algorithm.DEFLATE;
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public void setTopic(String topic) {
+            this.topic = topic;
+        }
+
+        public MqttPayloadCompressor.Algorithm getAlgorithm() {
+            return algorithm;
+        }
+
+        public void setAlgorithm(MqttPayloadCompressor.Algorithm algorithm) {
+            this.algorithm = algorithm;
+        }
+    }
+
+    public static class RequestConfig {
+        private boolean enabled = false;
+        // 响应主题前缀，默认 reply/<实际客户端ID>；完整响应主题随请求主题发送，响应方无需配置
+        private String replyTopicPrefix;
+        // 默认请求超时时间（毫秒）
+        private long defaultTimeout = 10000;
+        // 超时时间轮刻度（毫秒）
+        private long tickDuration = 100;
+        // 超时时间轮槽数
+        private int wheelSize = 512;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getReplyTopicPrefix() {
+            return replyTopicPrefix;
+        }
+
+        public void setReplyTopicPrefix(String replyTopicPrefix) {
+            this.replyTopicPrefix = replyTopicPrefix;
+        }
+
+        public long getDefaultTimeout() {
+            return defaultTimeout;
+        }
+
+        public void setDefaultTimeout(long defaultTimeout) {
+            this.defaultTimeout = defaultTimeout;
+        }
+
+        public long getTickDuration() {
+            return tickDuration;
+        }
+
+        public void setTickDuration(long tickDuration) {
+            this.tickDuration = tickDuration;
+        }
+
+        public int getWheelSize() {
+            return wheelSize;
+        }
+
+        public void setWheelSize(int wheelSize) {
+            this.wheelSize = wheelSize;
+        }
+    }
+
+    public static class ShutdownConfig {
+        // 是否在关闭时排空已排队的消息
+        private boolean graceful = true;
+        // 排空最长等待时间（毫秒），应小于 spring.lifecycle.timeout-per-shutdown-phase
+        private long timeout = 20000;
+        // SmartLifecycle 阶段，默认与 Web 服务优雅关闭同一阶段，早于普通 Lifecycle Bean 停止
+        private int phase = Integer.MAX_VALUE - 1024;
+
+        public boolean isGraceful() {
+            return graceful;
+        }
+
+        public void setGraceful(boolean graceful) {
+            this.graceful = graceful;
+        }
+
+        public long getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(long timeout) {
+            this.timeout = timeout;
+        }
+
+        public int getPhase() {
+            return phase;
+        }
+
+        public void setPhase(int phase) {
+            this.phase = phase;
+        }
+    }
+
+    public static class StartupConfig {
+        // 是否在后台线程中连接和订阅，不阻塞 Spring 容器启动
+        private boolean async = false;
+        // 就绪前发布消息的缓冲容量，0 表示就绪前发布直接失败
+        private int publishBufferCapacity = 0;
+
+        public boolean isAsync() {
+            return async;
+        }
+
+        public void setAsync(boolean async) {
+            this.async = async;
+        }
+
+        public int getPublishBufferCapacity() {
+            return publishBufferCapacity;
+        }
+
+        public void setPublishBufferCapacity(int publishBufferCapacity) {
+            this.publishBufferCapacity = publishBufferCapacity;
+        }
+    }
+
+    public static class FailoverConfig {
+        // 节点延迟探测间隔（毫秒）
+        private long probeInterval = 30000;
+        // 单个节点探测超时时间（毫秒）
+        private int probeTimeout = 1000;
+        // 延迟更低的节点可用时是否切回
+        private boolean failback = true;
+        // 最优节点延迟低于当前节点延迟的该比例时才切回
+        private double failbackRatio = 0.5;
+        // 切回前等待未完成消息收发的时间（毫秒）
+        private long failbackQuiesceTimeout = 5000;
+
+        public long getProbeInterval() {
+            return probeInterval;
+        }
+
+        public void setProbeInterval(long probeInterval) {
+            this.probeInterval = probeInterval;
+        }
+
+        public int getProbeTimeout() {
+            return probeTimeout;
+        }
+
+        public void setProbeTimeout(int probeTimeout) {
+            this.probeTimeout = probeTimeout;
+        }
+
+        public boolean isFailback() {
+            return failback;
+        }
+
+        public void setFailback(boolean failback) {
+            this.failback = failback;
+        }
+
+        public double getFailbackRatio() {
+            return failbackRatio;
+        }
+
+        public void setFailbackRatio(double failbackRatio) {
+            this.failbackRatio = failbackRatio;
+        }
+
+        public long getFailbackQuiesceTimeout() {
+            return failbackQuiesceTimeout;
+        }
+
+        public void setFailbackQuiesceTimeout(long failbackQuiesceTimeout) {
+            this.failbackQuiesceTimeout = failbackQuiesceTimeout;
+        }
+    }
+
+    public static class RecorderConfig {
+        // 是否录制收到的消息
+        private boolean enabled = false;
+        // 流量日志文件，已存在时覆盖
+        private String path = "mqtt-traffic.bin";
+        // 文件最大字节数，写满后停止录制，回放时不能超过 2GB
+        private long maxSize = 1024L * 1024 * 1024;
+        // 每次映射的字节数
+        private int chunkSize = 64 * 1024 * 1024;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public long getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    public static class CircuitBreakerConfig {
+        // 失败率阈值（百分比），达到后打开熔断器
+        private int failureRateThreshold = 50;
+        // 慢调用率阈值（百分比），达到后打开熔断器
+        private int slowCallRateThreshold = 100;
+        // 慢调用判定时间（毫秒）
+        private long slowCallDuration = 5000;
+        // 统计窗口大小（最近调用次数）
+        private int slidingWindowSize = 20;
+        // 窗口内至少有多少次调用才计算失败率
+        private int minimumCalls = 10;
+        // 打开状态持续时间（毫秒），之后进入半开状态
+        private long openDuration = 30000;
+        // 半开状态放行的试探调用次数
+        private int halfOpenCalls = 3;
+        // 打开期间暂存的消息数，打开时长结束后重新投递，晚于新到达的消息执行；0 表示直接丢弃
+        private int parkCapacity = 0;
+
+        public int getFailureRateThreshold() {
+            return failureRateThreshold;
+        }
+
+        public void setFailureRateThreshold(int failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+        }
+
+        public int getSlowCallRateThreshold() {
+            return slowCallRateThreshold;
+        }
+
+        public void setSlowCallRateThreshold(int slowCallRateThreshold) {
+            this.slowCallRateThreshold = slowCallRateThreshold;
+        }
+
+        public long getSlowCallDuration() {
+            return slowCallDuration;
+        }
+
+        public void setSlowCallDuration(long slowCallDuration) {
+            this.slowCallDuration = slowCallDuration;
+        }
+
+        public int getSlidingWindowSize() {
+            return slidingWindowSize;
+        }
+
+        public void setSlidingWindowSize(int slidingWindowSize) {
+            this.slidingWindowSize = slidingWindowSize;
+        }
+
+        public int getMinimumCalls() {
+            return minimumCalls;
+        }
+
+        public void setMinimumCalls(int minimumCalls) {
+            this.minimumCalls = minimumCalls;
+        }
+
+        public long getOpenDuration() {
+            return openDuration;
+        }
+
+        public void setOpenDuration(long openDuration) {
+            this.openDuration = openDuration;
+        }
+
+        public int getHalfOpenCalls() {
+            return halfOpenCalls;
+        }
+
+        public void setHalfOpenCalls(int halfOpenCalls) {
+            this.halfOpenCalls = halfOpenCalls;
+        }
+
+        public int getParkCapacity() {
+            return parkCapacity;
+        }
+
+        public void setParkCapacity(int parkCapacity) {
+            this.parkCapacity = parkCapacity;
+        }
+    }
+
+    // 分块传输接收配置，断线续传需同时配置 cleanSession=false
+    public static class ChunkedConfig {
+        // 接收临时文件目录，默认 java.io.tmpdir
+        private String tempDir;
+        // 单个传输最大字节数
+        private long maxTransferSize = 1024L * 1024 * 1024;
+        // 每个处理器同时进行的传输数上限
+        private int maxTransfers = 16;
+        // 超过该时间（毫秒）没有收到新数据块的传输将被放弃
+        private long transferTimeout = 600000;
+
+        public String getTempDir() {
+            return tempDir;
+        }
+
+        public void setTempDir(String tempDir) {
+            this.tempDir = tempDir;
+        }
+
+        public long getMaxTransferSize() {
+            return maxTransferSize;
+        }
+
+        public void setMaxTransferSize(long maxTransferSize) {
+            this.maxTransferSize = maxTransferSize;
+        }
+
+        public int getMaxTransfers() {
+            return maxTransfers;
+        }
+
+        public void setMaxTransfers(int maxTransfers) {
+            this.maxTransfers = maxTransfers;
+        }
+
+        public long getTransferTimeout() {
+            return transferTimeout;
+        }
+
+        public void setTransferTimeout(long transferTimeout) {
+            this.transferTimeout = transferTimeout;
+        }
+    }
+
     public String getBroker() {
         return broker;
     }
@@ -121,6 +572,14 @@ public class MqttProperties {
         this.broker = broker;
     }
 
+    public List<String> getBrokers() {
+        return brokers;
+    }
+
+    public void setBrokers(List<String> brokers) {
+        this.brokers = brokers;
+    }
+
     public String getClientId() {
         return clientId;
     }
@@ -176,4 +635,68 @@ public class MqttProperties {
     public void setThreadPool(ThreadPoolConfig threadPool) {
         this.threadPool = threadPool;
     }
+
+    public CompressionConfig getCompression() {
+        return compression;
+    }
+
+    public void setCompression(CompressionConfig compression) {
+        this.compression = compression;
+    }
+
+    public RequestConfig getRequest() {
+        return request;
+    }
+
+    public void setRequest(RequestConfig request) {
+        this.request = request;
+    }
+
+    public ShutdownConfig getShutdown() {
+        return shutdown;
+    }
+
+    public void setShutdown(ShutdownConfig shutdown) {
+        this.shutdown = shutdown;
+    }
+
+    public StartupConfig getStartup() {
+        return startup;
+    }
+
+    public void setStartup(StartupConfig startup) {
+        this.startup = startup;
+    }
+
+    public FailoverConfig getFailover() {
+        return failover;
+    }
+
+    public void setFailover(FailoverConfig failover) {
+        this.failover = failover;
+    }
+
+    public RecorderConfig getRecorder() {
+        return recorder;
+    }
+
+    public void setRecorder(RecorderConfig recorder) {
+        this.recorder = recorder;
+    }
+
+    public CircuitBreakerConfig getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void setCircuitBreaker(CircuitBreakerConfig circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public ChunkedConfig getChunked() {
+        return chunked;
+    }
+
+    public void setChunked(ChunkedConfig chunked) {
+        this.chunked = chunked;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,311 @@
+package com.gong.iot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于 MQTT 的请求/响应模板
+ * <p>
+ * 约定: 请求发布到 {@code <请求主题>/<URL 编码后的响应主题>}，响应主题为 {@code <replyTopicPrefix>/<correlationId>}，
+ * 响应方订阅 {@code <请求主题>/+}，将最后一层按 UTF-8 URL 解码后作为回复主题，无需预先知道响应主题前缀。
+ * 每个实例只订阅一次 {@code <replyTopicPrefix>/+}，通过关联ID在待响应表中查找请求，
+ * 超时由单线程时间轮统一处理，不会为每个请求创建订阅、线程或定时任务。
+ * <p>
+ * 关联ID为 16 进制的 64 位序号，起始值随机，重启后上一次运行迟到的响应不会匹配到新的请求。
+ */
+public class MqttRequestTemplate implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(MqttRequestTemplate.class);
+
+    private final MqttClientWrapper wrapper;
+    private final ObjectMapper objectMapper;
+    private final Executor responseExecutor;
+    private final String replyTopicPrefix;
+    // URL 编码后的响应主题前缀，拼接关联ID后作为请求主题的最后一层
+    private final String encodedReplyTopicPrefix;
+    private final long defaultTimeout;
+
+    private final Map<Long, PendingRequest<?>> pendingRequests = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong(new SecureRandom().nextLong());
+    private final TimeoutWheel timeoutWheel;
+
+    /**
+     * @param wrapper MQTT 客户端
+     * @param objectMapper 请求/响应序列化
+     * @param responseExecutor 响应反序列化及完成回调所在线程池，避免占用 MQTT 接收线程
+     * @param replyTopicPrefix 响应主题前缀，同一前缀只能被一个实例使用
+     * @param defaultTimeout 默认超时时间（毫秒）
+     * @param tickDuration 时间轮刻度（毫秒），即超时精度
+     * @param wheelSize 时间轮槽数，会向上取整为 2 的幂
+     */
+    public MqttRequestTemplate(MqttClientWrapper wrapper, ObjectMapper objectMapper, Executor responseExecutor,
+                               String replyTopicPrefix, long defaultTimeout, long tickDuration, int wheelSize) {
+        this.wrapper = wrapper;
+        this.objectMapper = objectMapper;
+        this.responseExecutor = responseExecutor;
+        this.replyTopicPrefix = replyTopicPrefix.endsWith("/") ? replyTopicPrefix : replyTopicPrefix + "/";
+        try {
+            this.encodedReplyTopicPrefix = URLEncoder.encode(this.replyTopicPrefix, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        this.defaultTimeout = defaultTimeout;
+        this.timeoutWheel = new TimeoutWheel(tickDuration, wheelSize);
+    }
+
+    /**
+     * 订阅响应主题并开始拦截响应消息
+     * @throws MqttException 如果订阅失败
+     */
+    public void start() throws MqttException {
+        wrapper.getCallback().addMessageInterceptor(this::onMessage);
+        wrapper.subscribe(replyTopicPrefix + "+");
+        timeoutWheel.start();
+        logger.info("MQTT 请求模板已启动，响应主题: {}+", replyTopicPrefix);
+    }
+
+    /**
+     * 使用默认超时时间发送请求
+     * @see #request(String, Object, int, Class, long)
+     */
+    public <T> CompletableFuture<T> request(String topic, Object payload, Class<T> responseType) {
+        return request(topic, payload, 1, responseType, defaultTimeout);
+    }
+
+    /**
+     * 发送请求并异步等待响应
+     * <p>
+     * 请求本身同步发布: QoS 1/2 时调用线程会阻塞到 Broker 确认（PUBACK/PUBCOMP）或客户端超时，
+     * 之后才返回 future；不要在 MQTT 回调线程中以 QoS &gt; 0 调用。发布失败时返回的 future 以该异常结束。
+     * @param topic 请求主题，实际发布到 {@code topic/<URL 编码后的响应主题>}
+     * @param payload 请求内容，byte[] 和 String 原样发送，其他类型序列化为 JSON
+     * @param qos 请求消息质量等级
+     * @param responseType 响应类型，支持 byte[]、String 及 JSON 反序列化的类型
+     * @param timeoutMillis 超时时间（毫秒），超时后以 {@link TimeoutException} 结束
+     * @return 响应结果
+     */
+    public <T> CompletableFuture<T> request(String topic, Object payload, int qos, Class<T> responseType, long timeoutMillis) {
+        long correlationId = sequence.getAndIncrement();
+        PendingRequest<T> pending = new PendingRequest<>(correlationId, responseType,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+        pendingRequests.put(correlationId, pending);
+        timeoutWheel.schedule(pending);
+        try {
+            MqttMessage message = new MqttMessage(serialize(payload));
+            message.setQos(qos);
+            wrapper.publish(topic + "/" + encodedReplyTopicPrefix + Long.toHexString(correlationId), message);
+        } catch (Exception e) {
+            pendingRequests.remove(correlationId);
+            pending.future.completeExceptionally(e);
+        }
+        return pending.future;
+    }
+
+    /**
+     * 当前等待响应的请求数
+     */
+    public int getPendingCount() {
+        return pendingRequests.size();
+    }
+
+    private byte[] serialize(Object payload) throws Exception {
+        if (payload instanceof byte[]) {
+            return (byte[]) payload;
+        }
+        if (payload instanceof String) {
+            return ((String) payload).getBytes(StandardCharsets.UTF_8);
+        }
+        return objectMapper.writeValueAsBytes(payload);
+    }
+
+    /**
+     * 在 MQTT 接收线程中调用，响应主题的消息在此被消费，不再进入处理器注册表
+     */
+    private boolean onMessage(String topic, MqttMessage message) {
+        if (!topic.startsWith(replyTopicPrefix)) {
+            return false;
+        }
+        long correlationId;
+        try {
+            correlationId = Long.parseUnsignedLong(topic.substring(replyTopicPrefix.length()), 16);
+        } catch (NumberFormatException e) {
+            logger.warn("无法识别的响应主题: {}", topic);
+            return true;
+        }
+        PendingRequest<?> pending = pendingRequests.get(correlationId);
+        if (pending == null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("响应已超时或不存在 [关联ID: {}]", Long.toHexString(correlationId));
+            }
+            return true;
+        }
+        byte[] payload = message.getPayload();
+        // 若任务被线程池拒绝，请求仍会由时间轮按超时结束
+        responseExecutor.execute(() -> complete(pending, payload));
+        return true;
+    }
+
+    private <T> void complete(PendingRequest<T> pending, byte[] payload) {
+        if (!pendingRequests.remove(pending.correlationId, pending)) {
+            return;
+        }
+        try {
+            pending.future.complete(deserialize(payload, pending.responseType));
+        } catch (Exception e) {
+            pending.future.completeExceptionally(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T deserialize(byte[] payload, Class<T> responseType) throws Exception {
+        if (responseType == byte[].class) {
+            return (T) payload;
+        }
+        if (responseType == String.class) {
+            return (T) new String(payload, StandardCharsets.UTF_8);
+        }
+        return objectMapper.readValue(payload, responseType);
+    }
+
+    private void expire(PendingRequest<?> pending) {
+        if (pendingRequests.remove(pending.correlationId, pending)) {
+            pending.future.completeExceptionally(
+                    new TimeoutException("MQTT 请求超时 [关联ID: " + Long.toHexString(pending.correlationId) + "]"));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        timeoutWheel.shutdown();
+        for (PendingRequest<?> pending : pendingRequests.values()) {
+            if (pendingRequests.remove(pending.correlationId, pending)) {
+                pending.future.completeExceptionally(new CancellationException("MQTT 请求模板已关闭"));
+            }
+        }
+    }
+
+    private static class PendingRequest<T> {
+        final long correlationId;
+        final Class<T> responseType;
+        final long deadline;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        PendingRequest(long correlationId, Class<T> responseType, long deadline) {
+            this.correlationId = correlationId;
+            this.responseType = responseType;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * 哈希时间轮，单线程按刻度推进，每个刻度只检查一个槽。
+     * 新请求先进入待入轮队列，由推进线程在每个刻度开始时放入对应的槽，槽只被推进线程访问，
+     * 不会出现请求放入刚被推进过的槽而延迟一整圈的情况。
+     * 已完成的请求不主动从槽中移除，推进到该槽时直接丢弃。
+     */
+    private class TimeoutWheel {
+        private final long tickNanos;
+        private final Queue<PendingRequest<?>>[] buckets;
+        // 待放入槽中的新请求，只由推进线程消费
+        private final Queue<PendingRequest<?>> incoming = new ConcurrentLinkedQueue<>();
+        private final int mask;
+        private final long startTime = System.nanoTime();
+        private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mqtt-request-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 下一次推进的刻度，只由推进线程读写
+        private long currentTick = 0;
+
+        @SuppressWarnings("unchecked")
+        TimeoutWheel(long tickDuration, int wheelSize) {
+            this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickDuration));
+            int size = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+            this.buckets = new Queue[size];
+            for (int i = 0; i < size; i++) {
+                buckets[i] = new ArrayDeque<>();
+            }
+            this.mask = size - 1;
+        }
+
+        void start() {
+            ticker.scheduleAtFixedRate(this::tick, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+        }
+
+        void schedule(PendingRequest<?> pending) {
+            incoming.offer(pending);
+        }
+
+        private void tick() {
+            try {
+                long now = System.nanoTime();
+                long targetTick = (now - startTime) / tickNanos;
+                PendingRequest<?> pending;
+                while ((pending = incoming.poll()) != null) {
+                    long tick = (pending.deadline - startTime + tickNanos - 1) / tickNanos;
+                    // 已经错过的刻度放到本次推进的槽中，避免延迟一整圈
+                    tick = Math.max(tick, currentTick);
+                    buckets[(int) (tick & mask)].offer(pending);
+                }
+                // 调度延迟时补齐错过的刻度，最多转一圈
+                long from = Math.max(currentTick, targetTick - mask);
+                for (long t = from; t <= targetTick; t++) {
+                    expireBucket(buckets[(int) (t & mask)], now);
+                }
+                currentTick = targetTick + 1;
+            } catch (Exception e) {
+                logger.error("请求超时检查异常: {}", e.getMessage());
+            }
+        }
+
+        private void expireBucket(Queue<PendingRequest<?>> bucket, long now) {
+            List<PendingRequest<?>> notDue = null;
+            PendingRequest<?> pending;
+            while ((pending = bucket.poll()) != null) {
+                if (pending.future.isDone()) {
+                    continue;
+                }
+                if (pending.deadline - now <= 0) {
+                    expire(pending);
+                } else {
+                    // 超过一圈的请求留到下一圈
+                    if (notDue == null) {
+                        notDue = new ArrayList<>();
+                    }
+                    notDue.add(pending);
+                }
+            }
+            if (notDue != null) {
+                bucket.addAll(notDue);
+            }
+        }
+
+        void shutdown() {
+            ticker.shutdownNow();
+        }
+    }
+}
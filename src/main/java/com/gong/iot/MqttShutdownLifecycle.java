@@ -0,0 +1,61 @@
+package com.gong.iot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+/**
+ * MQTT 优雅关闭
+ * <p>
+ * 在 Spring 容器停止阶段排空 MQTT 客户端，此时其他 Bean 尚未销毁，已排队的消息处理器仍可正常访问数据库等下游资源。
+ * 排空在独立线程中进行，同一阶段的其他 Lifecycle Bean 可并行停止。
+ */
+public class MqttShutdownLifecycle implements SmartLifecycle {
+    private static final Logger logger = LoggerFactory.getLogger(MqttShutdownLifecycle.class);
+
+    private final MqttClientWrapper wrapper;
+    private final long timeout;
+    private final int phase;
+    private volatile boolean running = false;
+
+    public MqttShutdownLifecycle(MqttClientWrapper wrapper, long timeout, int phase) {
+        this.wrapper = wrapper;
+        this.timeout = timeout;
+        this.phase = phase;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        wrapper.drainAndShutdown(timeout);
+        running = false;
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        Thread thread = new Thread(() -> {
+            try {
+                stop();
+            } catch (Exception e) {
+                logger.error("MQTT 优雅关闭异常: {}", e.getMessage());
+            } finally {
+                callback.run();
+            }
+        }, "mqtt-shutdown");
+        thread.start();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return phase;
+    }
+}
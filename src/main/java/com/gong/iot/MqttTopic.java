@@ -10,4 +10,77 @@ public @interface MqttTopic {
      * 消息质量等级（默认0）
      */
     int qos() default 0;
+
+    /**
+     * 消息内容过滤表达式（默认不过滤），支持 Spring 占位符
+     * <p>
+     * 格式: {@code <JSON Pointer> <==|!=> <JSON 字面量>}，例如 {@code /type == "alarm"}。
+     * 不满足条件的消息不会被反序列化，也不会投递到回调线程池。
+     */
+    String filter() default "";
+
+    /**
+     * 处理器专用线程池的 Bean 名称（默认使用公共回调线程池），类型需为 {@link java.util.concurrent.Executor}
+     * <p>
+     * 配置后公共回调线程只负责把消息转交给该线程池，处理器阻塞不会占用其他主题的线程；
+     * 线程池拒绝的消息会被丢弃。优雅关闭时类型为 {@link java.util.concurrent.ExecutorService} 的线程池
+     * 会在回调线程池之后被关闭并等待排空。
+     */
+    String executor() default "";
+
+    /**
+     * 处理器最大并发数（默认0，不限制）
+     * <p>
+     * 达到上限时当前线程最多等待 {@link #maxConcurrencyWait()}，仍未空闲时：启用熔断且配置了
+     * {@code park-capacity} 时暂存，稍后重新投递；否则丢弃。丢弃的 QoS 1/2 消息已被确认，不会重新投递，
+     * 只在第 1 条及每 1000 条时记录警告日志。
+     */
+    int maxConcurrency() default 0;
+
+    /**
+     * 并发达到 {@link #maxConcurrency()} 时等待空闲的最长时间（毫秒，默认1000），0 表示不等待
+     * <p>
+     * 没有配置 {@link #executor()} 时在公共回调线程中等待，对接收形成背压。
+     */
+    long maxConcurrencyWait() default 1000;
+
+    /**
+     * 是否启用熔断（默认不启用），阈值见 {@code spring.mqtt.circuit-breaker}
+     * <p>
+     * 处理器抛出异常或执行超时的比例过高时熔断器打开，打开期间的消息被丢弃或暂存，不再占用线程。
+     * 暂存的消息在打开时长结束后作为试探调用重新投递，熔断器关闭后全部投递，因此会晚于恢复期间新到达的消息执行。
+     */
+    boolean circuitBreaker() default false;
+
+    /**
+     * 窗口聚合的数值字段（JSON Pointer，默认不聚合），支持 Spring 占位符
+     * <p>
+     * 配置后消息不再逐条投递，而是按 {@link #keySegment()} 分组累加，每个窗口每个键以
+     * {@link MqttAggregate} 投递一次，处理器需实现 {@code MqttMessageHandler<MqttAggregate>}。
+     */
+    String aggregate() default "";
+
+    /**
+     * 作为聚合键的主题层级，从 0 开始（默认-1，使用完整主题），例如 {@code device/+/telemetry} 取 1
+     */
+    int keySegment() default -1;
+
+    /**
+     * 聚合窗口长度（毫秒，默认1000）
+     */
+    long window() default 1000;
+
+    /**
+     * 聚合窗口滑动步长（毫秒，默认0，即滚动窗口），窗口长度必须是步长的整数倍
+     */
+    long windowSlide() default 0;
+
+    /**
+     * 是否接收分块传输（默认否），见 {@link MqttClientWrapper#publishChunked(String, java.io.InputStream, String)}
+     * <p>
+     * 启用后订阅 {@code <value>/+/+}，数据块写入临时文件，收齐并校验后以 {@link MqttTransfer} 投递一次，
+     * 处理器需实现 {@code MqttMessageHandler<MqttTransfer>}，不能与 {@link #filter()}、{@link #aggregate()} 同时使用，
+     * 主题不能包含 {@code #}。断线续传依赖持久会话，接收方需配置 {@code clean-session=false}。
+     */
+    boolean chunked() default false;
 }
@@ -0,0 +1,127 @@
+package com.gong.iot;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * MQTT 流量录制，将收到的消息追加写入内存映射的二进制日志，供 {@link MqttTrafficReplayer} 离线回放
+ * <p>
+ * 文件格式（大端）:
+ * <pre>
+ * 文件头: | magic(4) | version(4) | 录制开始时间 epoch ms(8) |
+ * 记录:   | 长度 n(4) | 距录制开始的纳秒(8) | qos(1) | 主题长度 m(2) | 主题(m) | 消息内容(n - 11 - m) |
+ * </pre>
+ * 长度为 0 表示日志结束；长度为负数表示当前映射区剩余部分为填充，跳过 -n 字节（含长度字段本身）。
+ */
+public class MqttTrafficRecorder implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(MqttTrafficRecorder.class);
+
+    static final int MAGIC = 0x4D515452; // "MQTR"
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 16;
+    // 记录中长度字段之后的固定部分: 时间(8) + qos(1) + 主题长度(2)
+    static final int RECORD_FIXED_LENGTH = 11;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long maxSize;
+    private final int chunkSize;
+    private final long startNanos = System.nanoTime();
+
+    private MappedByteBuffer buffer;
+    private long mappedStart;
+    private boolean full = false;
+    private boolean closed = false;
+
+    /**
+     * @param path 日志文件，已存在时覆盖
+     * @param maxSize 文件最大字节数，写满后停止录制
+     * @param chunkSize 每次映射的字节数
+     * @throws IOException 如果文件无法创建或映射
+     */
+    public MqttTrafficRecorder(Path path, long maxSize, int chunkSize) throws IOException {
+        this.path = path;
+        this.maxSize = maxSize;
+        this.chunkSize = chunkSize;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.mappedStart = 0;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(chunkSize, maxSize));
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis());
+        logger.info("开始录制 MQTT 流量: {}", path);
+    }
+
+    /**
+     * 作为消息拦截器使用，只录制不消费
+     * @return 始终为 false
+     */
+    public boolean record(String topic, MqttMessage message) {
+        append(topic, message.getQos(), message.getPayload());
+        return false;
+    }
+
+    public synchronized void append(String topic, int qos, byte[] payload) {
+        if (closed || full) {
+            return;
+        }
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_FIXED_LENGTH + topicBytes.length + payload.length;
+        // 额外预留 4 字节，保证映射区末尾总能写下填充标记
+        int need = 4 + length + 4;
+        if (buffer.remaining() < need && !nextRegion(need)) {
+            return;
+        }
+        buffer.putInt(length)
+                .putLong(System.nanoTime() - startNanos)
+                .put((byte) qos)
+                .putShort((short) topicBytes.length)
+                .put(topicBytes)
+                .put(payload);
+    }
+
+    private boolean nextRegion(int need) {
+        long regionStart = mappedStart + buffer.capacity();
+        long regionSize = Math.max(chunkSize, need);
+        if (regionStart + regionSize > maxSize) {
+            full = true;
+            logger.warn("MQTT 流量日志已达到最大大小 {} 字节，停止录制", maxSize);
+            return false;
+        }
+        try {
+            MappedByteBuffer next = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, regionSize);
+            buffer.putInt(-buffer.remaining());
+            buffer.force();
+            buffer = next;
+            mappedStart = regionStart;
+            return true;
+        } catch (IOException e) {
+            full = true;
+            logger.error("MQTT 流量日志映射失败，停止录制: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public synchronized void destroy() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer.force();
+        channel.close();
+        logger.info("MQTT 流量录制结束: {}", path);
+    }
+}
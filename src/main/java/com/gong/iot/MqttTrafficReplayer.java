@@ -0,0 +1,179 @@
+package com.gong.iot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MQTT 流量回放，将 {@link MqttTrafficRecorder} 录制的日志直接送入 {@link MqttHandlerRegistry#processMessage}，
+ * 在调用线程中顺序执行，用于离线压测和处理器性能回归
+ * <p>
+ * 处理耗时为 {@code processMessage} 的返回耗时: 配置了专用线程池（{@link MqttTopic#executor()}）的处理器只统计转交耗时，
+ * 窗口聚合和分块传输的处理器只统计累加/写入耗时，不包含处理器本身的执行时间。
+ */
+public class MqttTrafficReplayer {
+    private static final Logger logger = LoggerFactory.getLogger(MqttTrafficReplayer.class);
+
+    private final MqttHandlerRegistry registry;
+
+    public MqttTrafficReplayer(MqttHandlerRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * 回放流量日志
+     * @param path 日志文件
+     * @param speed 回放倍速，1 为原始速率，2 为两倍速；小于等于 0 表示不等待，以最大速度回放
+     * @return 回放结果
+     * @throws IOException 如果文件无法读取或格式不正确
+     */
+    public Report replay(Path path, double speed) throws IOException {
+        ByteBuffer log;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("流量日志超过 2GB，无法映射: " + path);
+            }
+            log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (log.remaining() < MqttTrafficRecorder.HEADER_LENGTH || log.getInt() != MqttTrafficRecorder.MAGIC) {
+            throw new IOException("不是 MQTT 流量日志: " + path);
+        }
+        int version = log.getInt();
+        if (version != MqttTrafficRecorder.VERSION) {
+            throw new IOException("不支持的流量日志版本: " + version);
+        }
+        log.getLong();
+
+        logger.info("开始回放 MQTT 流量: {}，倍速: {}", path, speed > 0 ? speed : "max");
+        long[] latencies = new long[1024];
+        int count = 0;
+        long bytes = 0;
+        long maxLag = 0;
+        long replayStart = System.nanoTime();
+        while (log.remaining() >= 4) {
+            int length = log.getInt();
+            if (length == 0) {
+                break;
+            }
+            if (length < 0) {
+                // 填充，跳到下一个映射区（转为 Buffer 调用，兼容在高版本 JDK 编译、JDK 8 运行）
+                ((Buffer) log).position(log.position() - 4 - length);
+                continue;
+            }
+            long offsetNanos = log.getLong();
+            log.get(); // qos，回放不区分
+            int topicLength = log.getShort() & 0xFFFF;
+            byte[] topicBytes = new byte[topicLength];
+            log.get(topicBytes);
+            byte[] payload = new byte[length - MqttTrafficRecorder.RECORD_FIXED_LENGTH - topicLength];
+            log.get(payload);
+            String topic = new String(topicBytes, StandardCharsets.UTF_8);
+
+            if (speed > 0) {
+                long target = replayStart + (long) (offsetNanos / speed);
+                long wait = target - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                } else {
+                    maxLag = Math.max(maxLag, -wait);
+                }
+            }
+            long start = System.nanoTime();
+            try {
+                registry.processMessage(topic, payload);
+            } catch (Exception e) {
+                logger.warn("回放消息处理异常 [主题: {}]: {}", topic, e.getMessage());
+            }
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = System.nanoTime() - start;
+            bytes += payload.length;
+        }
+        Report report = new Report(Arrays.copyOf(latencies, count), bytes, System.nanoTime() - replayStart, maxLag);
+        logger.info("MQTT 流量回放结束: {}", report);
+        return report;
+    }
+
+    /**
+     * 回放结果
+     */
+    public static class Report {
+        private final int messages;
+        private final long bytes;
+        private final long elapsedNanos;
+        private final long maxLagNanos;
+        // 已排序的处理耗时（纳秒）
+        private final long[] latencies;
+
+        Report(long[] latencies, long bytes, long elapsedNanos, long maxLagNanos) {
+            Arrays.sort(latencies);
+            this.latencies = latencies;
+            this.messages = latencies.length;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+            this.maxLagNanos = maxLagNanos;
+        }
+
+        public int getMessages() {
+            return messages;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * 定速回放时实际投递相对计划时间的最大落后量，用于判断处理速度是否跟得上
+         */
+        public long getMaxLagNanos() {
+            return maxLagNanos;
+        }
+
+        /**
+         * 每秒处理消息数
+         */
+        public double getThroughput() {
+            return elapsedNanos > 0 ? messages * 1e9 / elapsedNanos : 0;
+        }
+
+        /**
+         * 处理耗时百分位（纳秒）
+         * @param percentile 0 ~ 100，例如 99.9
+         */
+        public long getLatencyPercentile(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("messages=%d, bytes=%d, elapsed=%dms, throughput=%.1f msg/s, "
+                            + "p50=%dus, p90=%dus, p99=%dus, p999=%dus, max=%dus, maxLag=%dms",
+                    messages, bytes, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), getThroughput(),
+                    micros(50), micros(90), micros(99), micros(99.9), micros(100),
+                    TimeUnit.NANOSECONDS.toMillis(maxLagNanos));
+        }
+
+        private long micros(double percentile) {
+            return TimeUnit.NANOSECONDS.toMicros(getLatencyPercentile(percentile));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.gong.iot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 分块传输接收完成的内容，已通过长度和 SHA-256 校验
+ * <p>
+ * 内容保存在临时文件中，处理器返回后临时文件会被删除；需要保留时在处理器中移动或复制该文件。
+ *
+ * @see MqttTopic#chunked()
+ */
+public final class MqttTransfer {
+    private final String transferId;
+    private final String name;
+    private final long size;
+    private final Path file;
+
+    MqttTransfer(String transferId, String name, long size, Path file) {
+        this.transferId = transferId;
+        this.name = name;
+        this.size = size;
+        this.file = file;
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+
+    /**
+     * 发送方指定的名称，可能为空
+     */
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * 临时文件
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * 打开内容输入流，由调用方关闭
+     * @throws IOException 如果临时文件已被删除或无法读取
+     */
+    public InputStream openStream() throws IOException {
+        return Files.newInputStream(file);
+    }
+
+    /**
+     * 删除临时文件，文件已被处理器移走时忽略
+     */
+    void discard() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // 由临时目录清理机制兜底
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MqttTransfer{id=" + transferId + ", name=" + name + ", size=" + size + "}";
+    }
+}
@@ -0,0 +1,409 @@
+package com.gong.iot;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * 窗口聚合，在处理器之前按键累加数值，每个窗口每个键只投递一次 {@link MqttAggregate}
+ * <p>
+ * 窗口按滑动步长切分为窗格，每个键保存"窗格数 + 1"个窗格的 count/sum/min/max/last 累加器，
+ * 多出的一个用于定时任务投递上一个窗口之前就到达的下一个窗格的消息；窗格只有在包含它的窗口全部投递后才会被复用，
+ * 定时任务滞后超过一个窗格时由累加线程先投递已结束的窗口。累加器按"槽位 * (窗格数 + 1) + 窗格序号"展开存放在基本类型数组中，
+ * 键使用开放寻址（线性探测），消息路径上不产生装箱对象。
+ * <p>
+ * 已有键的累加只持有读锁和槽位所在的分段锁，不同键之间互不阻塞；新增键、重建表和投递持有写锁。
+ * 窗口边界按 epoch 毫秒对齐，由定时任务在每个窗格结束时调用 {@link #flush()}。
+ */
+final class MqttWindowAggregator {
+    private static final Logger logger = LoggerFactory.getLogger(MqttWindowAggregator.class);
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int STRIPES = 64;
+
+    private final String name;
+    private final JsonPointer field;
+    private final JsonFactory jsonFactory;
+    private final int keySegment;
+    private final long paneMillis;
+    private final int panes;
+    // 每个键的窗格单元数
+    private final int cells;
+    private final BiConsumer<String, MqttAggregate> sink;
+
+    // 读锁: 已有键的累加；写锁: 新增键、重建表、投递
+    private final ReentrantReadWriteLock tableLock = new ReentrantReadWriteLock();
+    // 按槽位分段，保护累加器单元和 topics
+    private final Object[] stripes = new Object[STRIPES];
+    // 串行化投递，保证同一窗口不会被两个线程同时投递
+    private final Object flushLock = new Object();
+
+    private String[] keys;
+    // 每个键最后收到消息的主题，投递时作为处理器的 topic 参数
+    private String[] topics;
+    private long[] paneIds;
+    private long[] counts;
+    private double[] sums;
+    private double[] mins;
+    private double[] maxs;
+    private double[] lasts;
+    private int size;
+    private long lastFlushedPane;
+    // 处理器已注销，之后的消息和投递被忽略
+    private volatile boolean closed;
+
+    /**
+     * @param name 名称，用于日志
+     * @param field 数值字段的 JSON Pointer
+     * @param keySegment 作为聚合键的主题层级（从 0 开始），小于 0 表示使用完整主题
+     * @param windowMillis 窗口长度（毫秒）
+     * @param slideMillis 滑动步长（毫秒），小于等于 0 表示滚动窗口
+     * @param jsonFactory 用于创建流式解析器
+     * @param sink 聚合结果接收方，参数为主题和聚合结果；在定时线程或累加线程中调用，应转交线程池后立即返回
+     * @throws IllegalArgumentException 如果窗口参数或字段不合法
+     */
+    MqttWindowAggregator(String name, String field, int keySegment, long windowMillis, long slideMillis,
+                         JsonFactory jsonFactory, BiConsumer<String, MqttAggregate> sink) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("聚合窗口长度必须大于 0: " + windowMillis);
+        }
+        long slide = slideMillis > 0 ? slideMillis : windowMillis;
+        if (slide > windowMillis || windowMillis % slide != 0) {
+            throw new IllegalArgumentException("聚合窗口长度必须是滑动步长的整数倍: " + windowMillis + "/" + slide);
+        }
+        if (!field.startsWith("/")) {
+            throw new IllegalArgumentException("聚合字段必须为 JSON Pointer (以 / 开头): " + field);
+        }
+        this.name = name;
+        this.field = JsonPointer.compile(field);
+        this.jsonFactory = jsonFactory;
+        this.keySegment = keySegment;
+        this.paneMillis = slide;
+        this.panes = (int) (windowMillis / slide);
+        this.cells = panes + 1;
+        this.sink = sink;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+        allocate(INITIAL_CAPACITY);
+        this.lastFlushedPane = System.currentTimeMillis() / paneMillis - 1;
+    }
+
+    long getPaneMillis() {
+        return paneMillis;
+    }
+
+    /**
+     * 累加一条消息，字段不存在或不是数值的消息被忽略
+     */
+    void accumulate(String topic, byte[] payload) {
+        double value;
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() == null || !MqttPayloadFilter.locate(parser, field)
+                    || !parser.currentToken().isNumeric()) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("聚合字段 {} 不存在或不是数值，忽略消息 [主题: {}]", field, topic);
+                }
+                return;
+            }
+            value = parser.getDoubleValue();
+        } catch (IOException e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("聚合解析消息失败 [主题: {}]: {}", topic, e.getMessage());
+            }
+            return;
+        }
+        String key = keyOf(topic);
+        while (!closed && !tryAccumulate(key, topic, value)) {
+            // 要复用的窗格还未投递，说明定时任务滞后，先投递已结束的窗口
+            flush();
+        }
+    }
+
+    /**
+     * @return false 表示对应单元中的窗格尚未投递，需要先投递后重试
+     */
+    private boolean tryAccumulate(String key, String topic, double value) {
+        ReentrantReadWriteLock.ReadLock readLock = tableLock.readLock();
+        readLock.lock();
+        try {
+            int slot = findSlot(key);
+            if (slot < 0) {
+                // 新增键需要写锁，完成后降级为读锁
+                readLock.unlock();
+                tableLock.writeLock().lock();
+                try {
+                    slot = insertSlot(key);
+                } finally {
+                    readLock.lock();
+                    tableLock.writeLock().unlock();
+                }
+            }
+            // 持有读锁期间投递不会进行，时间在读锁内获取，保证不会写入已投递的窗格
+            long pane = System.currentTimeMillis() / paneMillis;
+            synchronized (stripes[slot & (STRIPES - 1)]) {
+                int cell = slot * cells + (int) (pane % cells);
+                long previous = paneIds[cell];
+                if (previous != pane) {
+                    // 包含该窗格的最后一个窗口以 previous + panes - 1 结束
+                    if (counts[cell] > 0 && previous + panes - 1 > lastFlushedPane) {
+                        return false;
+                    }
+                    paneIds[cell] = pane;
+                    counts[cell] = 0;
+                    sums[cell] = 0;
+                    mins[cell] = Double.POSITIVE_INFINITY;
+                    maxs[cell] = Double.NEGATIVE_INFINITY;
+                }
+                counts[cell]++;
+                sums[cell] += value;
+                if (value < mins[cell]) {
+                    mins[cell] = value;
+                }
+                if (value > maxs[cell]) {
+                    maxs[cell] = value;
+                }
+                lasts[cell] = value;
+                topics[slot] = topic;
+            }
+            return true;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * 投递所有已结束的窗口，并清理不再出现在后续窗口中的键
+     */
+    void flush() {
+        flush(false);
+    }
+
+    /**
+     * 投递当前未结束的窗口并停止聚合，用于处理器注销；投递的窗口结束时间尚未到达，只包含已收到的数据
+     */
+    void close() {
+        flush(true);
+    }
+
+    private void flush(boolean close) {
+        List<MqttAggregate> results = new ArrayList<>();
+        List<String> resultTopics = new ArrayList<>();
+        synchronized (flushLock) {
+            if (closed) {
+                return;
+            }
+            tableLock.writeLock().lock();
+            try {
+                long completed = System.currentTimeMillis() / paneMillis - (close ? 0 : 1);
+                closed = close;
+                if (completed <= lastFlushedPane) {
+                    return;
+                }
+                // 只遍历包含未投递数据的窗口，调度长时间停顿后不会逐个检查空窗口
+                long oldest = Long.MAX_VALUE;
+                long newest = Long.MIN_VALUE;
+                for (int cell = 0; cell < paneIds.length; cell++) {
+                    long paneId = paneIds[cell];
+                    if (counts[cell] > 0 && paneId + panes - 1 > lastFlushedPane) {
+                        oldest = Math.min(oldest, paneId);
+                        newest = Math.max(newest, paneId);
+                    }
+                }
+                long last = Math.min(completed, newest + panes - 1);
+                for (long pane = Math.max(lastFlushedPane + 1, oldest); pane <= last; pane++) {
+                    collect(pane, results, resultTopics);
+                }
+                lastFlushedPane = completed;
+                evictIdle(completed - panes + 2);
+            } finally {
+                tableLock.writeLock().unlock();
+            }
+        }
+        // 在锁外按窗口顺序交给接收方，其他投递和累加线程不会等待接收方
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                sink.accept(resultTopics.get(i), results.get(i));
+            } catch (RuntimeException e) {
+                logger.error("聚合结果投递异常 [{}]: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 汇总以窗格 lastPane 结束的窗口
+     */
+    private void collect(long lastPane, List<MqttAggregate> results, List<String> resultTopics) {
+        long firstPane = lastPane - panes + 1;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] == null) {
+                continue;
+            }
+            long count = 0;
+            double sum = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double last = 0;
+            long lastPaneId = Long.MIN_VALUE;
+            for (int cell = slot * cells, end = cell + cells; cell < end; cell++) {
+                long paneId = paneIds[cell];
+                if (paneId < firstPane || paneId > lastPane || counts[cell] == 0) {
+                    continue;
+                }
+                count += counts[cell];
+                sum += sums[cell];
+                min = Math.min(min, mins[cell]);
+                max = Math.max(max, maxs[cell]);
+                if (paneId > lastPaneId) {
+                    lastPaneId = paneId;
+                    last = lasts[cell];
+                }
+            }
+            if (count > 0) {
+                results.add(new MqttAggregate(keys[slot], firstPane * paneMillis, (lastPane + 1) * paneMillis,
+                        count, sum, min, max, last));
+                resultTopics.add(topics[slot]);
+            }
+        }
+    }
+
+    /**
+     * 超过一半的键已没有有效数据时重建表
+     * @param minLivePane 后续窗口包含的最早窗格
+     */
+    private void evictIdle(long minLivePane) {
+        int live = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != null && isLive(slot, minLivePane)) {
+                live++;
+            }
+        }
+        if (size - live > size / 2) {
+            rehash(Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, live) * 4)), minLivePane);
+        }
+    }
+
+    private boolean isLive(int slot, long minLivePane) {
+        for (int cell = slot * cells, end = cell + cells; cell < end; cell++) {
+            if (counts[cell] > 0 && paneIds[cell] >= minLivePane) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 查找已有键，需持有读锁
+     * @return 槽位，不存在时为 -1
+     */
+    private int findSlot(String key) {
+        int mask = keys.length - 1;
+        int slot = spread(key.hashCode()) & mask;
+        while (keys[slot] != null) {
+            if (keys[slot].equals(key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 查找或新增键，需持有写锁
+     */
+    private int insertSlot(String key) {
+        int mask = keys.length - 1;
+        int slot = spread(key.hashCode()) & mask;
+        while (keys[slot] != null) {
+            if (keys[slot].equals(key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        // 装载因子不超过 0.5
+        if (size + 1 > keys.length >> 1) {
+            rehash(keys.length << 1, Long.MIN_VALUE);
+            return insertSlot(key);
+        }
+        keys[slot] = key;
+        size++;
+        return slot;
+    }
+
+    private void rehash(int capacity, long minLivePane) {
+        String[] oldKeys = keys;
+        String[] oldTopics = topics;
+        long[] oldPaneIds = paneIds;
+        long[] oldCounts = counts;
+        double[] oldSums = sums;
+        double[] oldMins = mins;
+        double[] oldMaxs = maxs;
+        double[] oldLasts = lasts;
+        boolean[] keep = new boolean[oldKeys.length];
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            keep[slot] = oldKeys[slot] != null && (minLivePane == Long.MIN_VALUE || isLive(slot, minLivePane));
+        }
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+            if (!keep[oldSlot]) {
+                continue;
+            }
+            int slot = spread(oldKeys[oldSlot].hashCode()) & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[oldSlot];
+            topics[slot] = oldTopics[oldSlot];
+            System.arraycopy(oldPaneIds, oldSlot * cells, paneIds, slot * cells, cells);
+            System.arraycopy(oldCounts, oldSlot * cells, counts, slot * cells, cells);
+            System.arraycopy(oldSums, oldSlot * cells, sums, slot * cells, cells);
+            System.arraycopy(oldMins, oldSlot * cells, mins, slot * cells, cells);
+            System.arraycopy(oldMaxs, oldSlot * cells, maxs, slot * cells, cells);
+            System.arraycopy(oldLasts, oldSlot * cells, lasts, slot * cells, cells);
+            size++;
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        topics = new String[capacity];
+        paneIds = new long[capacity * cells];
+        Arrays.fill(paneIds, -1);
+        counts = new long[capacity * cells];
+        sums = new double[capacity * cells];
+        mins = new double[capacity * cells];
+        maxs = new double[capacity * cells];
+        lasts = new double[capacity * cells];
+        size = 0;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private String keyOf(String topic) {
+        if (keySegment < 0) {
+            return topic;
+        }
+        int start = 0;
+        for (int i = 0; i < keySegment; i++) {
+            int slash = topic.indexOf('/', start);
+            if (slash < 0) {
+                return topic;
+            }
+            start = slash + 1;
+        }
+        int end = topic.indexOf('/', start);
+        return end < 0 ? topic.substring(start) : topic.substring(start, end);
+    }
+}